@@ -0,0 +1,102 @@
+package org.apache.lucene.search.highlight;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.index.analysis.benchmark.LogCorpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks nelo-highlight on one field of one hit: the query terms are
+ * extracted for every value and the values are rendered, as
+ * {@link NeloHighlighter#highlight} does once the value is loaded.
+ * <p>
+ * The highlighter context needs the search context of a live shard, so the
+ * benchmark drives the extraction and rendering core the highlighter is built
+ * on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeloHighlighterBenchmark {
+
+	private static final String FIELD = "body";
+
+	@Param({ "short", "body", "stacktrace" })
+	public String corpus;
+
+	@Param({ "term", "wildcard" })
+	public String query;
+
+	@Param({ "analyzed", "not_analyzed" })
+	public String mapping;
+
+	private NeloHighlighter highlighter;
+
+	private Analyzer analyzer;
+
+	private boolean analyzed;
+
+	private Query parsedQuery;
+
+	private List<Object> values;
+
+	@Setup
+	public void setup() {
+		highlighter = new NeloHighlighter(ImmutableSettings.EMPTY);
+		values = new LogCorpus().values(corpus, 1);
+		analyzed = "analyzed".equals(mapping);
+		analyzer = analyzed ? new StandardAnalyzer(Version.LUCENE_43) : new KeywordAnalyzer();
+		if (analyzed) {
+			parsedQuery = "term".equals(query) ? new TermQuery(new Term(FIELD, "exception")) : new WildcardQuery(
+					new Term(FIELD, "conn*"));
+		} else {
+			String value = values.get(0).toString();
+			parsedQuery = "term".equals(query) ? new TermQuery(new Term(FIELD, value)) : new WildcardQuery(new Term(
+					FIELD, value.substring(0, Math.min(4, value.length())) + "*"));
+		}
+	}
+
+	@Benchmark
+	public List<Text> highlight() throws IOException {
+		ArrayList<String> terms = new ArrayList<String>();
+		for (Object value : values) {
+			terms.addAll(highlighter.terms(parsedQuery, analyzer, FIELD, FIELD, value.toString(), null));
+		}
+		return highlighter.render(analyzer, FIELD, analyzed, values, new NeloHighlighter.QueryTerms(terms), "<em>",
+				"</em>", Long.MAX_VALUE);
+	}
+
+	@Benchmark
+	public List<Text> render() throws IOException {
+		ArrayList<String> terms = new ArrayList<String>();
+		terms.add(analyzed ? "exception" : values.get(0).toString());
+		return highlighter.render(analyzer, FIELD, analyzed, values, new NeloHighlighter.QueryTerms(terms), "<em>",
+				"</em>", Long.MAX_VALUE);
+	}
+}
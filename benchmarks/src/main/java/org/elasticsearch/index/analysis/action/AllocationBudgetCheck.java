@@ -0,0 +1,232 @@
+package org.elasticsearch.index.analysis.action;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.highlight.NeloHighlighter;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.common.io.FastStringReader;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.analysis.benchmark.LogCorpus;
+import org.elasticsearch.indices.analysis.IndicesAnalysisService;
+import org.elasticsearch.transport.TransportService;
+import org.elasticsearch.transport.local.LocalTransport;
+
+/**
+ * Measures the bytes allocated per highlighted hit and per token by
+ * {@link NeloHighlighter} and {@link TransportHighlightAction} on the seeded
+ * corpora, with the allocation counter of the current thread, and fails when
+ * a scenario allocates more than its budget in "allocation-budget.properties".
+ * <p>
+ * Runs in the verify phase of the benchmarks build, "-Dallocation.update=true"
+ * prints the measured values in the format of the budget file.
+ */
+public class AllocationBudgetCheck {
+
+	private static final int WARMUP = 2000;
+
+	private static final int ITERATIONS = 500;
+
+	private static final String FIELD = "body";
+
+	private final com.sun.management.ThreadMXBean threadMXBean;
+
+	private final Map<String, Long> measured = new LinkedHashMap<String, Long>();
+
+	public AllocationBudgetCheck() {
+		this.threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threadMXBean.isThreadAllocatedMemorySupported()) {
+			throw new IllegalStateException("thread allocated memory is not supported by this jvm");
+		}
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	public static void main(String[] args) throws Exception {
+		AllocationBudgetCheck check = new AllocationBudgetCheck();
+		check.measure();
+		if (Boolean.getBoolean("allocation.update")) {
+			for (Map.Entry<String, Long> entry : check.measured.entrySet()) {
+				System.out.println(entry.getKey() + "=" + entry.getValue());
+			}
+			return;
+		}
+		List<String> failures = check.verify(loadBudget());
+		if (!failures.isEmpty()) {
+			for (String failure : failures) {
+				System.err.println(failure);
+			}
+			throw new IllegalStateException("[" + failures.size() + "] allocation budgets exceeded");
+		}
+	}
+
+	private void measure() throws Exception {
+		LogCorpus corpus = new LogCorpus();
+		final NeloHighlighter highlighter = new NeloHighlighter(ImmutableSettings.EMPTY);
+		final Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_43);
+		final Query query = new TermQuery(new Term(FIELD, "exception"));
+		final List<Object> body = corpus.values("body", 1);
+		final List<Object> shortValue = corpus.values("short", 1);
+		final String text = body.get(0).toString();
+		final NeloHighlighter.QueryTerms queryTerms = queryTerms("exception");
+		long tokens = tokens(analyzer, text);
+
+		long perHit = measure(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return highlighter.render(analyzer, FIELD, true, body, queryTerms, "<em>", "</em>", Long.MAX_VALUE);
+			}
+		});
+		measured.put("nelo.render.body.per_hit", perHit);
+		measured.put("nelo.render.body.per_token", perHit / tokens);
+		measured.put("nelo.render.short.per_hit", measure(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return highlighter.render(analyzer, FIELD, true, shortValue, queryTerms, "<em>", "</em>",
+						Long.MAX_VALUE);
+			}
+		}));
+		measured.put("nelo.render.not_analyzed.per_hit", measure(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return highlighter.render(analyzer, FIELD, false, shortValue, queryTerms, "<em>", "</em>",
+						Long.MAX_VALUE);
+			}
+		}));
+		measured.put("nelo.extract.body.per_hit", measure(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return highlighter.terms(query, analyzer, FIELD, FIELD, text, null);
+			}
+		}));
+
+		Settings settings = ImmutableSettings.EMPTY;
+		// the transport is never started, the action only registers its handler
+		final TransportHighlightAction action = new TransportHighlightAction(settings, null, null,
+				new IndicesAnalysisService(settings), null, new TransportService(new LocalTransport(settings, null),
+						null));
+		final Map<String, Object> mapping = mapping();
+		final String markup = text.replace("exception", "<em>exception</em>");
+		final HashSet<String> highlightList = action.drill(markup);
+
+		long convertPerHit = measure(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return action.render(mapping, FIELD, text, highlightList, Long.MAX_VALUE);
+			}
+		});
+		measured.put("transport.convert_string.body.per_hit", convertPerHit);
+		measured.put("transport.convert_string.body.per_token", convertPerHit / tokens);
+		measured.put("transport.drill.body.per_hit", measure(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return action.drill(markup);
+			}
+		}));
+		measured.put("transport.convert.body.per_hit", measure(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return TransportHighlightAction.convert(markup, text);
+			}
+		}));
+	}
+
+	/**
+	 * the average bytes allocated by one call, after the warmup calls.
+	 */
+	private long measure(Callable<Object> callable) throws Exception {
+		Object sink = null;
+		for (int i = 0; i < WARMUP; i++) {
+			sink = callable.call();
+		}
+		long threadId = Thread.currentThread().getId();
+		long start = threadMXBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < ITERATIONS; i++) {
+			sink = callable.call();
+		}
+		long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+		if (sink == null) {
+			throw new IllegalStateException("no result");
+		}
+		return allocated / ITERATIONS;
+	}
+
+	private List<String> verify(Properties budget) {
+		List<String> failures = new ArrayList<String>();
+		for (Map.Entry<String, Long> entry : measured.entrySet()) {
+			String value = budget.getProperty(entry.getKey());
+			if (value == null) {
+				failures.add("no allocation budget for [" + entry.getKey() + "], measured [" + entry.getValue()
+						+ "] bytes");
+				continue;
+			}
+			long limit = Long.parseLong(value.trim());
+			String line = entry.getKey() + ": [" + entry.getValue() + "] bytes, budget [" + limit + "]";
+			if (entry.getValue() > limit) {
+				failures.add("allocation budget exceeded, " + line);
+			} else {
+				System.out.println(line);
+			}
+		}
+		return failures;
+	}
+
+	private static Properties loadBudget() throws IOException {
+		InputStream in = AllocationBudgetCheck.class.getResourceAsStream("/allocation-budget.properties");
+		if (in == null) {
+			throw new IllegalStateException("allocation-budget.properties not found on the classpath");
+		}
+		try {
+			Properties budget = new Properties();
+			budget.load(in);
+			return budget;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static NeloHighlighter.QueryTerms queryTerms(String... terms) {
+		ArrayList<String> list = new ArrayList<String>();
+		for (String term : terms) {
+			list.add(term);
+		}
+		return new NeloHighlighter.QueryTerms(list);
+	}
+
+	private static long tokens(Analyzer analyzer, String text) throws IOException {
+		TokenStream ts = analyzer.tokenStream(FIELD, new FastStringReader(text));
+		ts.reset();
+		long tokens = 0;
+		while (ts.incrementToken()) {
+			tokens++;
+		}
+		ts.end();
+		ts.close();
+		return Math.max(1, tokens);
+	}
+
+	private static Map<String, Object> mapping() {
+		Map<String, Object> body = new HashMap<String, Object>();
+		body.put("type", "string");
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(FIELD, body);
+		Map<String, Object> mapping = new HashMap<String, Object>();
+		mapping.put("properties", properties);
+		return mapping;
+	}
+}
@@ -0,0 +1,184 @@
+package org.elasticsearch.index.analysis.action;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.index.analysis.benchmark.LogCorpus;
+import org.elasticsearch.indices.analysis.IndicesAnalysisService;
+import org.elasticsearch.transport.TransportService;
+import org.elasticsearch.transport.local.LocalTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the coordinator side post processing of
+ * {@link TransportHighlightAction}, per fragment: unescaping, re-aligning the
+ * "&lt;em&gt;" markup with the source value (convert), collecting the
+ * highlighted terms (drill) and rendering the value (render), and a page of
+ * hits whose values repeat and are answered by a cache like the builder cache
+ * of doExecute.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportHighlightActionBenchmark {
+
+	private static final String INDEX = "nelo2-log-2013-07-19";
+
+	private static final String TYPE = "log";
+
+	private static final String[] HIGHLIGHTED = new String[] { "exception", "connection", "timeout" };
+
+	/**
+	 * the "limit" of the request, "999mb" is the default of the rest
+	 * endpoint.
+	 */
+	@Param({ "999mb", "1kb" })
+	public String limit;
+
+	@Param({ "body", "short" })
+	public String corpus;
+
+	private TransportHighlightAction action;
+
+	private Map<String, Object> mapping;
+
+	private long realSize;
+
+	private String original;
+
+	private String markup;
+
+	private String escaped;
+
+	private HashSet<String> highlightList;
+
+	private List<String> pageOriginals;
+
+	private List<String> pageMarkups;
+
+	@Setup
+	public void setup() {
+		Settings settings = ImmutableSettings.EMPTY;
+		// the transport is never started, the action only registers its handler
+		action = new TransportHighlightAction(settings, null, null, new IndicesAnalysisService(settings), null,
+				new TransportService(new LocalTransport(settings, null), null));
+		realSize = ByteSizeValue.parseBytesSizeValue(limit).bytes();
+
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put("body", field("string", null));
+		properties.put("host", field("string", "not_analyzed"));
+		mapping = new HashMap<String, Object>();
+		mapping.put("properties", properties);
+
+		LogCorpus logCorpus = new LogCorpus();
+		original = value(logCorpus);
+		markup = highlight(original);
+		escaped = markup.replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&#34;");
+		highlightList = action.drill(markup);
+
+		// 100 hits, the values of 10 of them repeat on the page
+		List<String> distinct = new ArrayList<String>();
+		for (int i = 0; i < 10; i++) {
+			distinct.add(value(logCorpus));
+		}
+		pageOriginals = new ArrayList<String>();
+		pageMarkups = new ArrayList<String>();
+		for (int i = 0; i < 100; i++) {
+			String value = distinct.get(i % distinct.size());
+			pageOriginals.add(value);
+			pageMarkups.add(highlight(value));
+		}
+	}
+
+	@Benchmark
+	public String unescape() throws IOException {
+		return action.unescape(escaped);
+	}
+
+	@Benchmark
+	public String convert() {
+		return TransportHighlightAction.convert(markup, original);
+	}
+
+	@Benchmark
+	public HashSet<String> drill() {
+		return action.drill(markup);
+	}
+
+	@Benchmark
+	public String render() throws IOException {
+		return action.render(mapping, "body", original, highlightList, realSize);
+	}
+
+	@Benchmark
+	public String renderNotAnalyzed() throws IOException {
+		return action.render(mapping, "host", original, highlightList, realSize);
+	}
+
+	/**
+	 * one page of hits through drill, render and a cache of the rendered
+	 * values, like the highlighted fields loop of doExecute.
+	 */
+	@Benchmark
+	public long page() throws IOException {
+		Map<String, String> rendered = new HashMap<String, String>(16);
+		long chars = 0;
+		for (int i = 0; i < pageOriginals.size(); i++) {
+			String originalText = pageOriginals.get(i);
+			HashSet<String> terms = action.drill(pageMarkups.get(i));
+			String key = INDEX + TYPE + "body" + originalText.hashCode();
+			String finalText = rendered.get(key);
+			if (finalText == null) {
+				finalText = action.render(mapping, "body", originalText, terms, realSize);
+				rendered.put(key, finalText);
+			}
+			chars += finalText.length();
+		}
+		return chars;
+	}
+
+	private String value(LogCorpus logCorpus) {
+		return "short".equals(corpus) ? logCorpus.shortValue() : logCorpus.body(4 * 1024);
+	}
+
+	/**
+	 * the markup of the plain highlighter, the highlighted words wrapped in
+	 * "&lt;em&gt;".
+	 */
+	private static String highlight(String text) {
+		for (String term : HIGHLIGHTED) {
+			text = text.replace(term, "<em>" + term + "</em>");
+		}
+		return text;
+	}
+
+	private static Map<String, Object> field(String type, String index) {
+		Map<String, Object> field = new HashMap<String, Object>();
+		field.put("type", type);
+		if (index != null) {
+			field.put("index", index);
+		}
+		return field;
+	}
+}
@@ -0,0 +1,23 @@
+package org.elasticsearch.index.analysis.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of benchmarks.jar, takes the JMH command line and always adds
+ * the gc profiler, so every result carries its allocation rate
+ * ("gc.alloc.rate.norm" is the bytes allocated per operation).
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar NeloHighlighterBenchmark -p corpus=body
+ * </pre>
+ */
+public class HighlightBenchmarks {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder().parent(cmdOptions).addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,302 @@
+package org.elasticsearch.index.analysis.benchmark;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+
+/**
+ * Load test of "_highlight" against a local node started in this JVM, with
+ * the plugin loaded from the classpath. Synthetic log documents are bulk
+ * indexed, then the workers send "_highlight" requests over http at the given
+ * rate and the latency percentiles and throughput are printed.
+ * <p>
+ * The rate is open loop: request n is due at start + n / rate and its latency
+ * is measured from that time, so a stalled node shows up in the percentiles
+ * instead of slowing down the load. rate=0 sends as fast as the workers can.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.elasticsearch.index.analysis.benchmark.HighlightLoadTest \
+ *     docs=100000 threads=8 rate=200 duration=60 warmup=10
+ * </pre>
+ */
+public class HighlightLoadTest {
+
+	private static final String INDEX = "nelo2-log-2013-07-19";
+
+	private static final String TYPE = "log";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String[] QUERIES = new String[] { "exception", "conn*", "timeout AND retry",
+			"projectName:billing AND failed", "\"connection refused\"", "sess* OR token" };
+
+	private final int docs;
+
+	private final int threads;
+
+	private final double rate;
+
+	private final long duration;
+
+	private final long warmup;
+
+	private final int size;
+
+	public HighlightLoadTest(Map<String, String> params) {
+		this.docs = Integer.parseInt(param(params, "docs", "20000"));
+		this.threads = Integer.parseInt(param(params, "threads", "4"));
+		this.rate = Double.parseDouble(param(params, "rate", "0"));
+		this.duration = TimeUnit.SECONDS.toNanos(Long.parseLong(param(params, "duration", "30")));
+		this.warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(param(params, "warmup", "5")));
+		this.size = Integer.parseInt(param(params, "size", "20"));
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> params = new HashMap<String, String>();
+		for (String arg : args) {
+			int idx = arg.indexOf('=');
+			if (idx == -1) {
+				throw new IllegalArgumentException("expected key=value but got [" + arg + "]");
+			}
+			params.put(arg.substring(0, idx), arg.substring(idx + 1));
+		}
+		new HighlightLoadTest(params).run();
+	}
+
+	public void run() throws Exception {
+		File home = File.createTempFile("highlight-load", "");
+		home.delete();
+		Node node = NodeBuilder
+				.nodeBuilder()
+				.local(true)
+				.clusterName("highlight-load-" + System.nanoTime())
+				.settings(
+						ImmutableSettings.settingsBuilder().put("path.home", home.getAbsolutePath())
+								.put("network.host", "127.0.0.1").put("http.enabled", true)
+								.put("discovery.zen.ping.multicast.enabled", false).put("gateway.type", "none")
+								.put("index.number_of_shards", 2).put("index.number_of_replicas", 0)).node();
+		try {
+			Client client = node.client();
+			client.admin().cluster().prepareHealth().setWaitForGreenStatus().execute().actionGet();
+			index(client);
+			InetSocketAddress address = ((InetSocketTransportAddress) client.admin().cluster().prepareNodesInfo()
+					.setHttp(true).execute().actionGet().getNodes()[0].getHttp().address().publishAddress())
+					.address();
+			String url = "http://" + address.getHostName() + ":" + address.getPort() + "/" + INDEX + "/" + TYPE
+					+ "/_highlight";
+
+			System.out.println("warmup for " + TimeUnit.NANOSECONDS.toSeconds(warmup) + "s");
+			load(url, warmup);
+			System.out.println("measuring for " + TimeUnit.NANOSECONDS.toSeconds(duration) + "s, threads [" + threads
+					+ "], rate [" + (rate > 0 ? rate + "/s" : "unbounded") + "]");
+			Result result = load(url, duration);
+			result.print(System.out);
+		} finally {
+			node.close();
+			FileSystemUtils.deleteRecursively(home);
+		}
+	}
+
+	private void index(Client client) throws IOException {
+		XContentBuilder mapping = jsonBuilder().startObject().startObject(TYPE).startObject("properties")
+				.startObject("body").field("type", "string").endObject().startObject("projectName")
+				.field("type", "string").field("index", "not_analyzed").endObject().startObject("host")
+				.field("type", "string").field("index", "not_analyzed").endObject().startObject("logType")
+				.field("type", "string").field("index", "not_analyzed").endObject().startObject("@timestamp")
+				.field("type", "date").endObject().endObject().endObject().endObject();
+		client.admin().indices().prepareCreate(INDEX).addMapping(TYPE, mapping).execute().actionGet();
+
+		LogCorpus corpus = new LogCorpus();
+		long timestamp = 1374192000000L;
+		long start = System.nanoTime();
+		for (int i = 0; i < docs; i += 1000) {
+			BulkRequestBuilder bulk = client.prepareBulk();
+			for (int j = i; j < Math.min(docs, i + 1000); j++) {
+				bulk.add(client.prepareIndex(INDEX, TYPE).setSource(
+						jsonBuilder().startObject().field("body", corpus.body(256 + j % 8 * 512))
+								.field("projectName", corpus.projectName()).field("host", corpus.host())
+								.field("logType", corpus.logType()).field("@timestamp", timestamp + j * 1000L)
+								.endObject()));
+			}
+			BulkResponse response = bulk.execute().actionGet();
+			if (response.hasFailures()) {
+				throw new IllegalStateException(response.buildFailureMessage());
+			}
+		}
+		client.admin().indices().prepareRefresh(INDEX).execute().actionGet();
+		System.out.println("indexed [" + docs + "] docs in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+	}
+
+	private Result load(final String url, final long duration) throws InterruptedException {
+		final long start = System.nanoTime();
+		final long end = start + duration;
+		final long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+		final AtomicLong tickets = new AtomicLong();
+		final Recorder[] recorders = new Recorder[threads];
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final Recorder recorder = recorders[i] = new Recorder();
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (true) {
+						long ticket = tickets.getAndIncrement();
+						long due = interval == 0 ? System.nanoTime() : start + ticket * interval;
+						if (due >= end) {
+							return;
+						}
+						long wait = due - System.nanoTime();
+						if (wait > 0) {
+							try {
+								TimeUnit.NANOSECONDS.sleep(wait);
+							} catch (InterruptedException e) {
+								return;
+							}
+						}
+						boolean ok = send(url, QUERIES[(int) (ticket % QUERIES.length)]);
+						recorder.record(System.nanoTime() - due, ok);
+					}
+				}
+			}, "highlight-load-" + i);
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return new Result(recorders, System.nanoTime() - start);
+	}
+
+	private boolean send(String url, String query) {
+		HttpURLConnection connection = null;
+		try {
+			byte[] body = jsonBuilder().startObject().field("size", size).startObject("query")
+					.startObject("query_string").field("query", query).endObject().endObject()
+					.startObject("highlight").field("type", "nelo-highlight").endObject().endObject().bytes()
+					.toBytes();
+			connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			OutputStream out = connection.getOutputStream();
+			out.write(body);
+			out.close();
+			int status = connection.getResponseCode();
+			InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			if (in != null) {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					response.write(buffer, 0, read);
+				}
+				in.close();
+			}
+			if (status >= 400) {
+				System.err.println("[" + status + "] " + new String(response.toByteArray(), UTF8));
+				return false;
+			}
+			return true;
+		} catch (IOException e) {
+			System.err.println("request failed: " + e);
+			return false;
+		} finally {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	private static String param(Map<String, String> params, String name, String defaultValue) {
+		String value = params.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	// latencies of one worker
+	private static class Recorder {
+
+		long[] latencies = new long[1024];
+		int count;
+		int errors;
+
+		void record(long latency, boolean ok) {
+			if (!ok) {
+				errors++;
+			}
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = latency;
+		}
+	}
+
+	private static class Result {
+
+		final long[] latencies;
+		final int errors;
+		final long took;
+
+		Result(Recorder[] recorders, long took) {
+			List<long[]> parts = new ArrayList<long[]>();
+			int count = 0, errors = 0;
+			for (Recorder recorder : recorders) {
+				parts.add(Arrays.copyOf(recorder.latencies, recorder.count));
+				count += recorder.count;
+				errors += recorder.errors;
+			}
+			latencies = new long[count];
+			int offset = 0;
+			for (long[] part : parts) {
+				System.arraycopy(part, 0, latencies, offset, part.length);
+				offset += part.length;
+			}
+			Arrays.sort(latencies);
+			this.errors = errors;
+			this.took = took;
+		}
+
+		long percentile(double percentile) {
+			if (latencies.length == 0) {
+				return 0;
+			}
+			int idx = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, Math.min(latencies.length - 1, idx))];
+		}
+
+		void print(PrintStream out) {
+			out.println("requests   : " + latencies.length + " (" + errors + " errors)");
+			out.println(String.format("throughput : %.1f req/s", latencies.length
+					/ (took / (double) TimeUnit.SECONDS.toNanos(1))));
+			for (double percentile : new double[] { 50, 90, 99, 99.9 }) {
+				out.println(String.format("p%-9s : %.2f ms", percentile == 99.9 ? "999" : String.valueOf((int) percentile),
+						percentile(percentile) / 1000000.0));
+			}
+			out.println(String.format("max        : %.2f ms", percentile(100) / 1000000.0));
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package org.elasticsearch.index.analysis.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates log values shaped like the documents of the nelo indices. The
+ * generator is seeded, so every run (and every commit) benchmarks the same
+ * text.
+ */
+public class LogCorpus {
+
+	public static final long SEED = 0x6e656c6fL;
+
+	public static final String[] PROJECTS = new String[] { "nelo2-api", "nelo2-web", "billing", "mail-gateway",
+			"search-front", "image-resizer" };
+
+	public static final String[] LOG_TYPES = new String[] { "nelo2-app", "nelo2-crash", "access", "batch" };
+
+	public static final String[] LEVELS = new String[] { "DEBUG", "INFO", "WARN", "ERROR", "FATAL" };
+
+	private static final String[] WORDS = new String[] { "request", "response", "connection", "timeout", "user",
+			"session", "failed", "retry", "cache", "miss", "hit", "queue", "worker", "started", "stopped", "refused",
+			"exception", "handler", "socket", "closed", "payload", "invalid", "token", "expired", "upstream", "latency",
+			"commit", "rollback", "transaction", "lock", "acquired", "released", "shard", "replica", "node" };
+
+	private static final String[] PACKAGES = new String[] { "com.nhncorp.nelo2.api", "com.nhncorp.nelo2.web",
+			"org.springframework.web.servlet", "org.apache.catalina.core", "java.util.concurrent", "java.net" };
+
+	private static final String[] CLASSES = new String[] { "RequestHandler", "SessionManager", "ConnectionPool",
+			"DispatcherServlet", "ThreadPoolExecutor", "SocketInputStream", "TransactionTemplate" };
+
+	private final Random random;
+
+	public LogCorpus() {
+		this(SEED);
+	}
+
+	public LogCorpus(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * a short value like a host name or a one line message.
+	 */
+	public String shortValue() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(LEVELS[random.nextInt(LEVELS.length)]).append(' ');
+		int words = 3 + random.nextInt(6);
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(word());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * a multi line message of about the given length, with the markup and
+	 * entities found in real bodies.
+	 */
+	public String body(int length) {
+		StringBuilder sb = new StringBuilder(length + 128);
+		while (sb.length() < length) {
+			sb.append("2013-07-").append(10 + random.nextInt(20)).append(' ').append(10 + random.nextInt(14))
+					.append(':').append(10 + random.nextInt(50)).append(':').append(10 + random.nextInt(50))
+					.append(' ').append(LEVELS[random.nextInt(LEVELS.length)]).append(" [")
+					.append(PROJECTS[random.nextInt(PROJECTS.length)]).append("] ");
+			int words = 8 + random.nextInt(16);
+			for (int i = 0; i < words; i++) {
+				switch (random.nextInt(20)) {
+				case 0:
+					sb.append("<b>").append(word()).append("</b>");
+					break;
+				case 1:
+					sb.append("&lt;").append(word()).append("&gt;");
+					break;
+				case 2:
+					sb.append("user_id=").append(random.nextInt(100000));
+					break;
+				case 3:
+					sb.append("http://").append(host()).append('/').append(word()).append('?').append(word())
+							.append('=').append(random.nextInt(1000));
+					break;
+				default:
+					sb.append(word());
+				}
+				sb.append(' ');
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * a stack trace of about the given length, nested "Caused by" blocks
+	 * included.
+	 */
+	public String stackTrace(int length) {
+		StringBuilder sb = new StringBuilder(length + 256);
+		sb.append("java.lang.IllegalStateException: ").append(shortValue()).append('\n');
+		while (sb.length() < length) {
+			int frames = 20 + random.nextInt(40);
+			for (int i = 0; i < frames; i++) {
+				String clazz = CLASSES[random.nextInt(CLASSES.length)];
+				sb.append("\tat ").append(PACKAGES[random.nextInt(PACKAGES.length)]).append('.').append(clazz)
+						.append('.').append(word()).append('(').append(clazz).append(".java:")
+						.append(random.nextInt(2000)).append(")\n");
+			}
+			sb.append("Caused by: java.net.SocketTimeoutException: ").append(shortValue()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	public String host() {
+		return "nelo-" + word() + "-" + random.nextInt(64) + ".example.com";
+	}
+
+	public String projectName() {
+		return PROJECTS[random.nextInt(PROJECTS.length)];
+	}
+
+	public String logType() {
+		return LOG_TYPES[random.nextInt(LOG_TYPES.length)];
+	}
+
+	public String word() {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	/**
+	 * the values of the named shape, "short", "body" (multi KB) or
+	 * "stacktrace" (multi MB).
+	 */
+	public List<Object> values(String shape, int count) {
+		List<Object> values = new ArrayList<Object>(count);
+		for (int i = 0; i < count; i++) {
+			if ("short".equals(shape)) {
+				values.add(shortValue());
+			} else if ("body".equals(shape)) {
+				values.add(body(4 * 1024));
+			} else if ("stacktrace".equals(shape)) {
+				values.add(stackTrace(2 * 1024 * 1024));
+			} else {
+				throw new IllegalArgumentException("unknown corpus shape [" + shape + "]");
+			}
+		}
+		return values;
+	}
+}
@@ -0,0 +1,77 @@
+package org.apache.lucene.search.highlight;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.elasticsearch.common.io.FastStringReader;
+
+/**
+ * The tokens of one value in the order of their offsets, either from
+ * analyzing the value or from its stored term vector.
+ */
+abstract class HighlightTokens {
+
+	abstract boolean next() throws IOException;
+
+	abstract int startOffset();
+
+	abstract int endOffset();
+
+	/**
+	 * the analyzed form of the current token.
+	 */
+	abstract String term();
+
+	void close() throws IOException {
+	}
+
+	static HighlightTokens analyze(Analyzer analyzer, String indexName, String text, boolean terms)
+			throws IOException {
+		return new Analyzed(analyzer.tokenStream(indexName, new FastStringReader(text)), terms);
+	}
+
+	private static class Analyzed extends HighlightTokens {
+
+		// read once, so the tokens are not cached
+		private final TokenStream tokenStream;
+
+		private final OffsetAttribute offsetAttr;
+
+		private final CharTermAttribute termAttr;
+
+		Analyzed(TokenStream ts, boolean terms) throws IOException {
+			this.tokenStream = ts;
+			this.offsetAttr = tokenStream.getAttribute(OffsetAttribute.class);
+			this.termAttr = terms ? tokenStream.addAttribute(CharTermAttribute.class) : null;
+			ts.reset();
+		}
+
+		@Override
+		boolean next() throws IOException {
+			return tokenStream.incrementToken();
+		}
+
+		@Override
+		int startOffset() {
+			return offsetAttr.startOffset();
+		}
+
+		@Override
+		int endOffset() {
+			return offsetAttr.endOffset();
+		}
+
+		@Override
+		String term() {
+			return termAttr.toString();
+		}
+
+		@Override
+		void close() throws IOException {
+			tokenStream.close();
+		}
+	}
+}
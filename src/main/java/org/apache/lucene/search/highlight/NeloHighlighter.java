@@ -2,35 +2,46 @@ package org.apache.lucene.search.highlight;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.CachingTokenFilter;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.search.Query;
 import org.elasticsearch.common.collect.ImmutableList;
 import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.io.FastStringReader;
 import org.elasticsearch.common.lucene.search.XFilteredQuery;
 import org.elasticsearch.common.lucene.search.function.FiltersFunctionScoreQuery;
 import org.elasticsearch.common.lucene.search.function.FunctionScoreQuery;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.common.text.Text;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.SizeValue;
+import org.elasticsearch.index.analysis.action.HighlightCancellationService;
+import org.elasticsearch.index.analysis.action.HighlightCancelledException;
+import org.elasticsearch.index.analysis.action.HighlightShadowService;
+import org.elasticsearch.index.analysis.action.HighlightSlowLog;
+import org.elasticsearch.index.analysis.action.HighlightStrategyService;
+import org.elasticsearch.index.analysis.action.HighlightStrategyService.Strategy;
 import org.elasticsearch.index.fieldvisitor.CustomFieldsVisitor;
 import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.search.SearchHitField;
 import org.elasticsearch.search.fetch.FetchPhaseExecutionException;
 import org.elasticsearch.search.fetch.FetchSubPhase;
 import org.elasticsearch.search.highlight.HighlightField;
 import org.elasticsearch.search.highlight.Highlighter;
 import org.elasticsearch.search.highlight.HighlighterContext;
 import org.elasticsearch.search.highlight.SearchContextHighlight;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHitField;
 import org.elasticsearch.search.internal.SearchContext;
 import org.elasticsearch.search.lookup.SearchLookup;
 
@@ -41,6 +52,37 @@ public class NeloHighlighter implements Highlighter {
 	private final String PRE_I = "<i>";
 	private final String POST_I = "</i>";
 
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] PRE_I_BYTES = "<i>".getBytes(UTF8);
+	private static final byte[] POST_I_BYTES = "</i>".getBytes(UTF8);
+
+	private static final String PROFILE_FIELD = "_highlight_profile";
+
+	// tokens rendered between two checks whether the request was cancelled
+	private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+	private final HighlightSlowLog slowLog;
+
+	private final HighlightShadowService shadow;
+
+	private final HighlightStrategyService strategies;
+
+	private final HighlightCancellationService cancellation;
+
+	public NeloHighlighter(Settings settings) {
+		this(settings, new HighlightShadowService(settings), new HighlightStrategyService(settings),
+				new HighlightCancellationService(settings));
+	}
+
+	@Inject
+	public NeloHighlighter(Settings settings, HighlightShadowService shadow, HighlightStrategyService strategies,
+			HighlightCancellationService cancellation) {
+		this.slowLog = new HighlightSlowLog(settings, "field");
+		this.shadow = shadow;
+		this.strategies = strategies;
+		this.cancellation = cancellation;
+	}
+
 	@Override
 	public String[] names() {
 		return names;
@@ -48,12 +90,16 @@ public class NeloHighlighter implements Highlighter {
 
 	@Override
 	public HighlightField highlight(HighlighterContext highlighterContext) {
+		HighlightSlowLog.Entry slowLogEntry = slowLog.enabled() ? slowLog.start() : null;
 		SearchContextHighlight.Field field = highlighterContext.field;
 		String preTag = (field.preTags() == null || field.preTags().length == 0) ? "<em>" : field.preTags()[0];
 		String postTag = (field.postTags() == null || field.postTags().length == 0) ? "</em>" : field.postTags()[0];
 
 		Map<String, Object> options = field.options();
 		long sizeValue = Long.MAX_VALUE;
+		String combinedField = null;
+		String cancelId = null;
+		FieldProfile fieldProfile = null;
 		if (options != null && options.size() > 0) {
 			if (options.containsKey("string_size")) {
 				String size = options.get("string_size").toString();
@@ -63,7 +109,17 @@ public class NeloHighlighter implements Highlighter {
 					sizeValue = SizeValue.parseSizeValue(size).singles();
 				}
 			}
+			if (options.containsKey("combined_field")) {
+				combinedField = options.get("combined_field").toString();
+			}
+			if (options.containsKey("profile") && Boolean.parseBoolean(options.get("profile").toString())) {
+				fieldProfile = new FieldProfile();
+			}
+			if (options.containsKey("cancel_id")) {
+				cancelId = options.get("cancel_id").toString();
+			}
 		}
+		cancellation.check(cancelId);
 
 		SearchContext context = highlighterContext.context;
 		FetchSubPhase.HitContext hitContext = highlighterContext.hitContext;
@@ -76,8 +132,6 @@ public class NeloHighlighter implements Highlighter {
 			sourceOrPartial = "_source";
 		}
 
-		int min = Integer.MAX_VALUE, max = -1;
-
 		List<Object> textsToHighlight;
 		if (mapper.fieldType().stored()) {
 			try {
@@ -99,170 +153,327 @@ public class NeloHighlighter implements Highlighter {
 			textsToHighlight = lookup.source().extractRawValues(mapper.names().sourcePath());
 		}
 		assert textsToHighlight != null;
+		if (slowLogEntry != null) {
+			slowLogEntry.mark("load");
+		}
+		if (fieldProfile != null) {
+			fieldProfile.mark(FieldProfile.LOAD);
+		}
 
 		Analyzer analyzer = context.mapperService().documentMapper(hitContext.hit().type()).mappers().indexAnalyzer();
 		ArrayList<String> newTerms = new ArrayList<String>();
 		try {
 			for (Object textToHighlight : textsToHighlight) {
-				newTerms.addAll(terms(highlighterContext, analyzer, textToHighlight.toString()));
+				newTerms.addAll(terms(context.parsedQuery().query(), analyzer, mapper.names().indexName(),
+						mapper.names().name(), textToHighlight.toString(), combinedField));
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		QueryTerms queryTerms = new QueryTerms(newTerms);
 
-		// the terms length min and max
-		String[] a = newTerms.toArray(new String[] {});
-		Arrays.sort(a);
-		ListIterator<String> li = newTerms.listIterator();
-		for (int j = 0; j < a.length; j++) {
-			li.next();
-			li.set((String) a[j]);
-			min = Math.min(min, a[j].length());
-			max = Math.max(max, a[j].length());
+		if (slowLogEntry != null) {
+			slowLogEntry.mark("extract");
+		}
+		if (fieldProfile != null) {
+			fieldProfile.mark(FieldProfile.EXTRACT);
+		}
+
+		long chars = 0;
+		for (Object textToHighlight : textsToHighlight) {
+			chars += textToHighlight.toString().length();
+		}
+		HighlightStrategyService.FieldStats fieldStats = strategies.field(highlighterContext.fieldName);
+		Strategy strategy;
+		if (!mapper.fieldType().tokenized()) {
+			strategy = Strategy.NOT_ANALYZED;
+		} else if (queryTerms.size() == 0) {
+			strategy = Strategy.PREFILTER;
+		} else {
+			strategy = Strategy.ANALYZE;
+		}
+
+		// single values of fields indexed with offsets in their term vector
+		// are rendered from the vector, unescaped values no longer match it
+		TermVectorOffsets vectorOffsets = null;
+		if (strategy != Strategy.NOT_ANALYZED && mapper.fieldType().storeTermVectorOffsets()
+				&& textsToHighlight.size() == 1 && textsToHighlight.get(0).toString().indexOf('&') == -1
+				&& strategies.readTermVector(fieldStats, (int) chars)) {
+			try {
+				vectorOffsets = TermVectorOffsets.read(hitContext.reader(), hitContext.docId(), mapper.names()
+						.indexName(), textsToHighlight.get(0).toString());
+			} catch (IOException e) {
+				throw new FetchPhaseExecutionException(context, "Failed to highlight field ["
+						+ highlighterContext.fieldName + "]", e);
+			}
+			if (vectorOffsets == null) {
+				fieldStats.termVectorMiss();
+			} else if (strategy == Strategy.ANALYZE) {
+				strategy = Strategy.TERM_VECTOR;
+			}
 		}
 
 		int numberOfFragments = field.numberOfFragments() == 0 ? 1 : field.numberOfFragments();
-		ArrayList<String> fragsList = new ArrayList<String>();
+		ArrayList<Text> fragsList = new ArrayList<Text>();
 
 		try {
+			boolean sampled = shadow.shouldSample();
+			// the engine rendering second finds the data warm, so the order is
+			// random per sample
+			boolean candidateFirst = sampled && shadow.candidateFirst();
+			ArrayList<Text> candidate = null;
+			long candidateTook = 0;
+			if (candidateFirst) {
+				candidate = new ArrayList<Text>();
+				long start = System.nanoTime();
+				render(analyzer, mapper.names().indexName(), mapper.fieldType().tokenized(), textsToHighlight,
+						vectorOffsets, queryTerms, preTag, postTag, sizeValue, candidate, null, true, cancelId);
+				candidateTook = System.nanoTime() - start;
+			}
+			long start = sampled ? System.nanoTime() : 0;
+			int hits = render(analyzer, mapper.names().indexName(), mapper.fieldType().tokenized(), textsToHighlight,
+					vectorOffsets, queryTerms, preTag, postTag, sizeValue, fragsList, fieldProfile, false, cancelId);
+			fieldStats.record(strategy, textsToHighlight.size(), chars, hits > 0);
+			if (sampled) {
+				long currentTook = System.nanoTime() - start;
+				if (!candidateFirst) {
+					candidate = new ArrayList<Text>();
+					start = System.nanoTime();
+					render(analyzer, mapper.names().indexName(), mapper.fieldType().tokenized(), textsToHighlight,
+							vectorOffsets, queryTerms, preTag, postTag, sizeValue, candidate, null, true, cancelId);
+					candidateTook = System.nanoTime() - start;
+				}
+				shadow.record("[" + context.shardTarget().index() + "][" + context.shardTarget().shardId() + "], id["
+						+ hitContext.hit().id() + "], field[" + highlighterContext.fieldName + "]", strings(fragsList),
+						currentTook, strings(candidate), candidateTook);
+			}
+		} catch (HighlightCancelledException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new FetchPhaseExecutionException(context, "Failed to highlight field ["
+					+ highlighterContext.fieldName + "]", e);
+		}
 
-			boolean needAnalyzed = mapper.fieldType().tokenized();
-//			System.out.println(mapper.names().fullName());
-			if (needAnalyzed) {
-				for (Object textToHighlight : textsToHighlight) {
+		Text[] fragments = null;
+		// number_of_fragments is set to 0 but we have a multivalued field
+		if (field.numberOfFragments() == 0 && textsToHighlight.size() > 1 && fragsList.size() > 0) {
+			fragments = fragsList.toArray(new Text[fragsList.size()]);
+		} else {
+			// refine numberOfFragments if needed
+			numberOfFragments = fragsList.size() < numberOfFragments ? fragsList.size() : numberOfFragments;
+			fragments = new Text[numberOfFragments];
+			for (int i = 0; i < fragments.length; i++) {
+				fragments[i] = fragsList.get(i);
+			}
+		}
 
-					String text = textToHighlight.toString();
-					int firstAmp = text.indexOf("&");
-					if (firstAmp != -1) {
-						text = doUnescape(text,firstAmp);
-					}
+		if (fieldProfile != null) {
+			fieldProfile.mark(FieldProfile.RENDER);
+			long bytes = 0;
+			for (Text fragment : fragments) {
+				bytes += fragment.bytes().length();
+			}
+			Map<String, Object> profile = new LinkedHashMap<String, Object>();
+			profile.put("field", highlighterContext.fieldName);
+			profile.put("index", context.shardTarget().index());
+			profile.put("shard", context.shardTarget().shardId());
+			profile.put("load_nanos", fieldProfile.nanos[FieldProfile.LOAD]);
+			profile.put("extract_nanos", fieldProfile.nanos[FieldProfile.EXTRACT]);
+			profile.put("analyze_nanos", fieldProfile.analyzeNanos);
+			profile.put("render_nanos", fieldProfile.nanos[FieldProfile.RENDER] - fieldProfile.analyzeNanos);
+			profile.put("values", textsToHighlight.size());
+			profile.put("terms", queryTerms.size());
+			profile.put("tokens", fieldProfile.tokens);
+			profile.put("bytes", bytes);
+			profile.put("truncated", fieldProfile.truncated);
+			profile.put("term_vector", vectorOffsets != null);
+			profile.put("strategy", strategy.value());
+			addProfile(hitContext.hit(), profile);
+		}
+
+		if (slowLogEntry != null) {
+			slowLogEntry.mark("render");
+			long bytes = 0;
+			for (Text fragment : fragments) {
+				bytes += fragment.bytes().length();
+			}
+			slowLogEntry.value("index", context.shardTarget().index());
+			slowLogEntry.value("shard", context.shardTarget().shardId());
+			slowLogEntry.value("id", hitContext.hit().id());
+			slowLogEntry.value("field", highlighterContext.fieldName);
+			slowLogEntry.value("values", textsToHighlight.size());
+			slowLogEntry.value("terms", queryTerms.size());
+			slowLogEntry.value("bytes", bytes);
+			slowLogEntry.value("strategy", strategy.value());
+			slowLogEntry.value("query", context.parsedQuery().query());
+			slowLog.log(slowLogEntry);
+		}
+
+		if (fragments != null && fragments.length > 0) {
+			return new HighlightField(highlighterContext.fieldName, fragments);
+		}
 
-					StringBuilder sb = new StringBuilder();
+		return null;
+	}
 
-					TokenStream ts = analyzer.tokenStream(mapper.names().indexName(), new FastStringReader(text));
-					CachingTokenFilter tokenStream = new CachingTokenFilter(ts);
+	/**
+	 * renders the values of a field, every token is wrapped in "&lt;i&gt;" and
+	 * the tokens matching the query terms in the pre / post tags. Values longer
+	 * than sizeValue are truncated. The fragments are written as UTF-8 bytes.
+	 * 
+	 * @param analyzed
+	 *            whether the field is tokenized, a not analyzed value is
+	 *            rendered as one token.
+	 */
+	public List<Text> render(Analyzer analyzer, String indexName, boolean analyzed, List<Object> textsToHighlight,
+			QueryTerms queryTerms, String preTag, String postTag, long sizeValue) throws IOException {
+		ArrayList<Text> fragsList = new ArrayList<Text>();
+		render(analyzer, indexName, analyzed, textsToHighlight, null, queryTerms, preTag, postTag, sizeValue, fragsList,
+				null, false, null);
+		return fragsList;
+	}
+
+	/**
+	 * @param vectorOffsets
+	 *            the token offsets of a single valued field read from its term
+	 *            vector, the value is not analyzed again when set.
+	 * @param cancelId
+	 *            the id of the request, checked every
+	 *            {@link #CANCEL_CHECK_INTERVAL} tokens.
+	 * @return the number of tokens which matched the query terms.
+	 */
+	private int render(Analyzer analyzer, String indexName, boolean analyzed, List<Object> textsToHighlight,
+			TermVectorOffsets vectorOffsets, QueryTerms queryTerms, String preTag, String postTag, long sizeValue,
+			List<Text> fragsList, FieldProfile fieldProfile, boolean matchAnalyzed, String cancelId)
+			throws IOException {
+		// without query terms no token can match, the tokens are only wrapped
+		boolean match = queryTerms.size() > 0;
+		int hits = 0;
+		int checked = 0;
+		if (analyzed) {
+			byte[] preBytes = preTag.getBytes(UTF8);
+			byte[] postBytes = postTag.getBytes(UTF8);
+			for (Object textToHighlight : textsToHighlight) {
+				cancellation.check(cancelId);
+
+				String text = textToHighlight.toString();
+				int firstAmp = text.indexOf("&");
+				if (firstAmp != -1) {
+					text = doUnescape(text,firstAmp);
+				}
 
-					OffsetAttribute offsetAttr = tokenStream.getAttribute(OffsetAttribute.class);
+				// wrapping every token in "<i></i>" renders a log line to about
+				// 2.2 times its chars, the buffer should not have to grow
+				Utf8FragmentBuilder sb = new Utf8FragmentBuilder(text.length() * 9 / 4 + 16);
 
-					int offset = 0;
-					boolean stop = false;
-					ts.reset();
+				HighlightTokens tokens = vectorOffsets != null ? vectorOffsets.tokens() : HighlightTokens.analyze(
+						analyzer, indexName, text, matchAnalyzed);
 
-					while (tokenStream.incrementToken() && !stop) {
-						while (offset < offsetAttr.startOffset()) {
-							append(sb, text, offset);
+				int offset = 0;
+				boolean stop = false;
+
+				while (incrementToken(tokens, fieldProfile) && !stop) {
+					if (cancelId != null && ++checked == CANCEL_CHECK_INTERVAL) {
+						checked = 0;
+						if (cancellation.isCancelled(cancelId)) {
+							tokens.close();
+							throw new HighlightCancelledException(cancelId);
+						}
+					}
+					while (offset < tokens.startOffset()) {
+						sb.appendEscaped(text.charAt(offset));
+						if (offset > sizeValue) {
+							fragsList.add(sb.text());
+							if (fieldProfile != null) {
+								fieldProfile.truncated = true;
+							}
+						}
+						offset++;
+					}
+					// the shadow candidate matches the analyzed form of the token
+					if (match
+							&& (matchAnalyzed ? queryTerms.contains(tokens.term()) : queryTerms.contains(text,
+									offset, tokens.endOffset()))) {
+						hits++;
+						int tagPosition = sb.position();
+						sb.append(preBytes);
+						while (offset < tokens.endOffset()) {
+							sb.appendEscaped(text.charAt(offset));
 							if (offset > sizeValue) {
-								fragsList.add(sb.toString());
+								if (fieldProfile != null) {
+									fieldProfile.truncated = true;
+								}
+								if (offset + 1 == tokens.endOffset()) {
+									sb.append(postBytes);
+									fragsList.add(sb.text());
+								} else {
+									fragsList.add(sb.textWithout(tagPosition, preBytes.length));
+								}
+								stop = true;
+								break;
 							}
 							offset++;
 						}
-						String original = text.substring(offset, offsetAttr.endOffset());
-						int length = original.length();
-						boolean match = length >= min ? length <= max : false;
-						if (match && Collections.binarySearch(newTerms, original.toLowerCase()) >= 0) {
-							sb.append(preTag);
-							while (offset < offsetAttr.endOffset()) {
-								append(sb, text, offset);
-								if (offset > sizeValue) {
-									if (offset + 1 == offsetAttr.endOffset()) {
-										sb.append(postTag);
-										fragsList.add(sb.toString());
-									} else {
-										String str = sb.toString();
-										int idx = str.lastIndexOf(preTag);
-										str = str.substring(0, idx) + str.substring(idx + preTag.length());
-										fragsList.add(str);
-									}
-									stop = true;
-									break;
+						sb.append(postBytes);
+					} else {
+
+						int tagPosition = sb.position();
+						sb.append(PRE_I_BYTES);
+						while (offset < tokens.endOffset()) {
+							sb.appendEscaped(text.charAt(offset));
+							if (offset > sizeValue) {
+								if (fieldProfile != null) {
+									fieldProfile.truncated = true;
 								}
-								offset++;
-							}
-							sb.append(postTag);
-						} else {
-
-							sb.append(PRE_I);
-							int pLength = PRE_I.length();
-							while (offset < offsetAttr.endOffset()) {
-								append(sb, text, offset);
-								if (offset > sizeValue) {
-									if (offset < offsetAttr.endOffset() - 1) {
-										StringBuilder newSb = new StringBuilder();
-										String currentStr = sb.toString();
-										newSb.append(currentStr.substring(0, currentStr.lastIndexOf(PRE_I))).append(
-												currentStr.substring(currentStr.lastIndexOf(PRE_I) + pLength));
-										fragsList.add(newSb.toString());
-									} else {
-										fragsList.add(sb.append(POST_I).toString());
-									}
-									break;
+								if (offset < tokens.endOffset() - 1) {
+									fragsList.add(sb.textWithout(tagPosition, PRE_I_BYTES.length));
+								} else {
+									sb.append(POST_I_BYTES);
+									fragsList.add(sb.text());
 								}
-								offset++;
+								break;
 							}
-							sb.append(POST_I);
+							offset++;
 						}
-						offset = offsetAttr.endOffset();
-
+						sb.append(POST_I_BYTES);
 					}
-					tokenStream.close();
-					fragsList.add(sb.toString());
-				}
-			} else {
+					offset = tokens.endOffset();
 
-				for (Object textToHighlight : textsToHighlight) {
-					String text = textToHighlight.toString();
-
-					int length = text.length();
-					boolean match = length >= min ? length <= max : false;
-					if (match && Collections.binarySearch(newTerms, text) >= 0) {
-						fragsList.add(preTag + text + postTag);
-					} else {
-						fragsList.add(PRE_I + text + PRE_I);
-					}
 				}
+				tokens.close();
+				fragsList.add(sb.finish());
 			}
-		} catch (Exception e) {
-			throw new FetchPhaseExecutionException(context, "Failed to highlight field ["
-					+ highlighterContext.fieldName + "]", e);
-		} finally {
+		} else {
 
-		}
+			for (Object textToHighlight : textsToHighlight) {
+				String text = textToHighlight.toString();
 
-		String[] fragments = null;
-		// number_of_fragments is set to 0 but we have a multivalued field
-		if (field.numberOfFragments() == 0 && textsToHighlight.size() > 1 && fragsList.size() > 0) {
-			fragments = new String[fragsList.size()];
-			for (int i = 0; i < fragsList.size(); i++) {
-				fragments[i] = fragsList.get(i).toString();
-			}
-		} else {
-			// refine numberOfFragments if needed
-			numberOfFragments = fragsList.size() < numberOfFragments ? fragsList.size() : numberOfFragments;
-			fragments = new String[numberOfFragments];
-			for (int i = 0; i < fragments.length; i++) {
-				fragments[i] = fragsList.get(i).toString();
+				if (queryTerms.contains(text)) {
+					hits++;
+					fragsList.add(new StringText(preTag + text + postTag));
+				} else {
+					fragsList.add(new StringText(PRE_I + text + PRE_I));
+				}
 			}
 		}
-
-		if (fragments != null && fragments.length > 0) {
-			return new HighlightField(highlighterContext.fieldName, StringText.convertFromStringArray(fragments));
-		}
-
-		return null;
+		return hits;
 	}
 
-	private ArrayList<String> terms(HighlighterContext context, Analyzer analyzer, String text) throws IOException {
-		SearchContext searchContext = context.context;
-		FieldMapper<?> mapper = context.mapper;
-
-		TokenStream tokenStream = analyzer.tokenStream(mapper.names().indexName(), new FastStringReader(text));
+	/**
+	 * extracts the terms of the query which match the given field value.
+	 */
+	public ArrayList<String> terms(Query query, Analyzer analyzer, String indexName, String fieldName, String text,
+			String combinedField) throws IOException {
+		TokenStream tokenStream = analyzer.tokenStream(indexName, new FastStringReader(text));
 		tokenStream.reset();
 
-		WeightedSpanTermExtractor qse = new NeloWeightedSpanTermExtractor();
+		// when the query was run against a combined field, its terms count as
+		// terms of every field that was copied into it.
+		WeightedSpanTermExtractor qse = combinedField == null ? new NeloWeightedSpanTermExtractor()
+				: new NeloWeightedSpanTermExtractor(combinedField);
 		qse.setExpandMultiTermQuery(true);
 		qse.setMaxDocCharsToAnalyze(Integer.MAX_VALUE);
-		Map<String, WeightedSpanTerm> maps = qse.getWeightedSpanTerms(searchContext.parsedQuery().query(), tokenStream,
-				mapper.names().name());
+		Map<String, WeightedSpanTerm> maps = qse.getWeightedSpanTerms(query, tokenStream, fieldName);
 
 		ArrayList<String> terms = new ArrayList<String>();
 		terms.addAll(maps.keySet());
@@ -270,6 +481,45 @@ public class NeloHighlighter implements Highlighter {
 		return terms;
 	}
 
+	private static List<String> strings(List<Text> texts) {
+		List<String> strings = new ArrayList<String>(texts.size());
+		for (Text text : texts) {
+			strings.add(text.string());
+		}
+		return strings;
+	}
+
+	private static boolean incrementToken(HighlightTokens tokens, FieldProfile fieldProfile) throws IOException {
+		if (fieldProfile == null) {
+			return tokens.next();
+		}
+		long start = System.nanoTime();
+		boolean next = tokens.next();
+		fieldProfile.analyzeNanos += System.nanoTime() - start;
+		if (next) {
+			fieldProfile.tokens++;
+		}
+		return next;
+	}
+
+	/**
+	 * the profile of every highlighted field is added to the
+	 * "_highlight_profile" field of the hit.
+	 */
+	private static void addProfile(InternalSearchHit hit, Map<String, Object> profile) {
+		Map<String, SearchHitField> hitFields = hit.fieldsOrNull();
+		if (hitFields == null) {
+			hitFields = new HashMap<String, SearchHitField>(2);
+			hit.fields(hitFields);
+		}
+		SearchHitField profileField = hitFields.get(PROFILE_FIELD);
+		if (profileField == null) {
+			profileField = new InternalSearchHitField(PROFILE_FIELD, new ArrayList<Object>(4));
+			hitFields.put(PROFILE_FIELD, profileField);
+		}
+		profileField.values().add(profile);
+	}
+
 	public void append(StringBuilder sb, String text, int offset) {
 		char cc = text.charAt(offset);
 		if (cc == '<')
@@ -357,7 +607,86 @@ public class NeloHighlighter implements Highlighter {
 		}
 		return writer.toString();
 	}
-	
+
+	/**
+	 * the sorted query terms of a field, with their length bounds to skip the
+	 * lookup of tokens which can not match.
+	 */
+	public static class QueryTerms {
+
+		private final ArrayList<String> terms;
+		private final int min;
+		private final int max;
+
+		public QueryTerms(ArrayList<String> terms) {
+			this.terms = terms;
+			Collections.sort(terms);
+			int min = Integer.MAX_VALUE, max = -1;
+			for (String term : terms) {
+				min = Math.min(min, term.length());
+				max = Math.max(max, term.length());
+			}
+			this.min = min;
+			this.max = max;
+		}
+
+		public boolean contains(String text) {
+			int length = text.length();
+			boolean match = length >= min ? length <= max : false;
+			return match && Collections.binarySearch(terms, text) >= 0;
+		}
+
+		/**
+		 * whether the lower cased chars [start, end) of the text are a term,
+		 * the token is only copied when its length can match.
+		 */
+		public boolean contains(String text, int start, int end) {
+			int length = end - start;
+			if (length > max) {
+				// lower casing never shortens a token
+				return false;
+			}
+			if (length < min && !lengthens(text, start, end)) {
+				return false;
+			}
+			return contains(text.substring(start, end).toLowerCase());
+		}
+
+		// only the dotted capital I lower cases to two chars
+		private static boolean lengthens(String text, int start, int end) {
+			for (int i = start; i < end; i++) {
+				if (text.charAt(i) == '\u0130') {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public int size() {
+			return terms.size();
+		}
+	}
+
+	// per field timings of a profiled request
+	private static class FieldProfile {
+
+		static final int LOAD = 0;
+		static final int EXTRACT = 1;
+		static final int RENDER = 2;
+
+		final long[] nanos = new long[3];
+		long lastMark = System.nanoTime();
+		long analyzeNanos;
+		int tokens;
+		boolean truncated;
+
+		void mark(int phase) {
+			long now = System.nanoTime();
+			nanos[phase] += now - lastMark;
+			lastMark = now;
+		}
+	}
+
 	// wighted term exctractor
 	private static class NeloWeightedSpanTermExtractor extends WeightedSpanTermExtractor {
 
@@ -0,0 +1,121 @@
+package org.apache.lucene.search.highlight;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * The token boundaries of a value read from its term vector, which holds
+ * every token of the field (not only the matching ones) when the field is
+ * mapped with "term_vector": "with_offsets" or "with_positions_offsets".
+ * Rendering from it needs no analysis of the value.
+ */
+final class TermVectorOffsets {
+
+	private final int[] starts;
+
+	private final int[] ends;
+
+	private final String[] terms;
+
+	private TermVectorOffsets(int[] starts, int[] ends, String[] terms) {
+		this.starts = starts;
+		this.ends = ends;
+		this.terms = terms;
+	}
+
+	/**
+	 * reads the offsets of the field of the document, null when the document
+	 * has no term vector with offsets or the offsets do not fit the value.
+	 */
+	static TermVectorOffsets read(IndexReader reader, int docId, String field, String text) throws IOException {
+		Terms vector = reader.getTermVector(docId, field);
+		if (vector == null || !vector.hasOffsets()) {
+			return null;
+		}
+		long size = vector.getSumTotalTermFreq();
+		int capacity = size > 0 && size < Integer.MAX_VALUE ? (int) size : 16;
+		int[] starts = new int[capacity];
+		int[] ends = new int[capacity];
+		String[] terms = new String[capacity];
+		int count = 0;
+
+		TermsEnum termsEnum = vector.iterator(null);
+		DocsAndPositionsEnum positions = null;
+		BytesRef term;
+		while ((term = termsEnum.next()) != null) {
+			positions = termsEnum.docsAndPositions(null, positions, DocsAndPositionsEnum.FLAG_OFFSETS);
+			if (positions == null || positions.nextDoc() == DocsAndPositionsEnum.NO_MORE_DOCS) {
+				return null;
+			}
+			String termText = term.utf8ToString();
+			int freq = positions.freq();
+			for (int i = 0; i < freq; i++) {
+				positions.nextPosition();
+				int start = positions.startOffset();
+				int end = positions.endOffset();
+				if (start < 0 || end < start || end > text.length()) {
+					return null;
+				}
+				if (count == starts.length) {
+					starts = Arrays.copyOf(starts, count * 2);
+					ends = Arrays.copyOf(ends, count * 2);
+					terms = Arrays.copyOf(terms, count * 2);
+				}
+				starts[count] = start;
+				ends[count] = end;
+				terms[count] = termText;
+				count++;
+			}
+		}
+
+		// the vector is ordered by term, the renderer needs the text order
+		long[] order = new long[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = ((long) starts[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		int[] sortedStarts = new int[count];
+		int[] sortedEnds = new int[count];
+		String[] sortedTerms = new String[count];
+		for (int i = 0; i < count; i++) {
+			int idx = (int) order[i];
+			sortedStarts[i] = starts[idx];
+			sortedEnds[i] = ends[idx];
+			sortedTerms[i] = terms[idx];
+		}
+		return new TermVectorOffsets(sortedStarts, sortedEnds, sortedTerms);
+	}
+
+	HighlightTokens tokens() {
+		return new HighlightTokens() {
+
+			private int current = -1;
+
+			@Override
+			boolean next() {
+				return ++current < starts.length;
+			}
+
+			@Override
+			int startOffset() {
+				return starts[current];
+			}
+
+			@Override
+			int endOffset() {
+				return ends[current];
+			}
+
+			@Override
+			String term() {
+				return terms[current];
+			}
+		};
+	}
+}
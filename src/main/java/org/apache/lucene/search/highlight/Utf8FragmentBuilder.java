@@ -0,0 +1,131 @@
+package org.apache.lucene.search.highlight;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.text.BytesText;
+import org.elasticsearch.common.text.Text;
+
+/**
+ * Builds a highlighted fragment as UTF-8 bytes, the chars of the value are
+ * encoded as they are appended and the tags are appended pre-encoded. The
+ * fragments are returned as {@link BytesText}, which the response writes
+ * without encoding them again.
+ */
+final class Utf8FragmentBuilder {
+
+	private static final byte[] LT = new byte[] { '&', 'l', 't', ';' };
+
+	private static final byte[] GT = new byte[] { '&', 'g', 't', ';' };
+
+	private final BytesStreamOutput out;
+
+	// a high surrogate waiting for its low surrogate
+	private char pendingHigh;
+
+	Utf8FragmentBuilder(int expectedLength) {
+		this.out = new BytesStreamOutput(expectedLength);
+	}
+
+	/**
+	 * appends the char of the value, "&lt;" and "&gt;" are escaped.
+	 */
+	void appendEscaped(char c) throws IOException {
+		if (c == '<') {
+			append(LT);
+		} else if (c == '>') {
+			append(GT);
+		} else {
+			append(c);
+		}
+	}
+
+	void append(char c) throws IOException {
+		if (pendingHigh != 0) {
+			char high = pendingHigh;
+			pendingHigh = 0;
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				out.writeByte((byte) (0xF0 | (codePoint >> 18)));
+				out.writeByte((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				out.writeByte((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				out.writeByte((byte) (0x80 | (codePoint & 0x3F)));
+				return;
+			}
+			out.writeByte((byte) '?');
+		}
+		if (c < 0x80) {
+			out.writeByte((byte) c);
+		} else if (c < 0x800) {
+			out.writeByte((byte) (0xC0 | (c >> 6)));
+			out.writeByte((byte) (0x80 | (c & 0x3F)));
+		} else if (Character.isHighSurrogate(c)) {
+			pendingHigh = c;
+		} else if (Character.isLowSurrogate(c)) {
+			out.writeByte((byte) '?');
+		} else {
+			out.writeByte((byte) (0xE0 | (c >> 12)));
+			out.writeByte((byte) (0x80 | ((c >> 6) & 0x3F)));
+			out.writeByte((byte) (0x80 | (c & 0x3F)));
+		}
+	}
+
+	/**
+	 * appends already encoded bytes, like a tag.
+	 */
+	void append(byte[] bytes) throws IOException {
+		flushPending();
+		out.writeBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * the current length in bytes, to remember where a tag starts.
+	 */
+	int position() {
+		return out.size() + (pendingHigh != 0 ? 1 : 0);
+	}
+
+	/**
+	 * the finished fragment, it shares the buffer of the builder which must not
+	 * be used afterwards.
+	 */
+	Text finish() throws IOException {
+		flushPending();
+		return new BytesText(out.bytes());
+	}
+
+	/**
+	 * a copy of the fragment built so far.
+	 */
+	Text text() {
+		return textWithout(0, 0);
+	}
+
+	/**
+	 * a copy of the fragment built so far without the tag of the given length
+	 * starting at the given position. A pending high surrogate is copied as
+	 * '?' and stays pending, the builder is not changed.
+	 */
+	Text textWithout(int tagPosition, int tagLength) {
+		int pending = pendingHigh != 0 ? 1 : 0;
+		byte[] bytes = new byte[out.size() + pending - tagLength];
+		byte[] buffer = out.bytes().array();
+		int offset = out.bytes().arrayOffset();
+		System.arraycopy(buffer, offset, bytes, 0, tagPosition);
+		System.arraycopy(buffer, offset + tagPosition + tagLength, bytes, tagPosition, out.size() - tagPosition
+				- tagLength);
+		if (pending == 1) {
+			bytes[bytes.length - 1] = '?';
+		}
+		return new BytesText(new BytesArray(bytes));
+	}
+
+	// a lone high surrogate is written as '?' like String#getBytes does
+	private void flushPending() throws IOException {
+		if (pendingHigh != 0) {
+			pendingHigh = 0;
+			out.writeByte((byte) '?');
+		}
+	}
+}
@@ -21,7 +21,7 @@ public class HighlightAction extends
 
 	@Override
 	public HighlightResponse newResponse() {
-		return new HighlightResponse(0);
+		return new HighlightResponse();
 	}
 
 }
@@ -0,0 +1,153 @@
+package org.elasticsearch.index.analysis.action;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.BaseTransportRequestHandler;
+import org.elasticsearch.transport.EmptyTransportResponseHandler;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportService;
+
+/**
+ * The ids of the cancelled highlight requests, e.g. of clients which closed
+ * their connection. A cancellation is sent to every node of the cluster, the
+ * search and highlight loops of the request check it and stop with a
+ * {@link HighlightCancelledException}. Cancelled ids are kept for
+ * "highlight.cancel.expire" (default 10m).
+ */
+public class HighlightCancellationService extends AbstractComponent {
+
+	static final String ACTION = "highlight/cancel";
+
+	private final ClusterService clusterService;
+
+	private final TransportService transportService;
+
+	private final TimeValue expire;
+
+	private final Cache<String, Boolean> cancelled;
+
+	private final AtomicLong cancelledCount = new AtomicLong();
+
+	/**
+	 * a service which only cancels the requests of this node.
+	 */
+	public HighlightCancellationService(Settings settings) {
+		this(settings, null, null);
+	}
+
+	@Inject
+	public HighlightCancellationService(Settings settings, ClusterService clusterService,
+			TransportService transportService) {
+		super(settings);
+		this.clusterService = clusterService;
+		this.transportService = transportService;
+		this.expire = settings.getAsTime("highlight.cancel.expire", TimeValue.timeValueMinutes(10));
+		this.cancelled = CacheBuilder.newBuilder().expireAfterWrite(expire.millis(), TimeUnit.MILLISECONDS).build();
+		if (transportService != null) {
+			transportService.registerHandler(ACTION, new CancelHandler());
+		}
+	}
+
+	/**
+	 * cancels the request on every node.
+	 */
+	public void cancel(String id) {
+		cancelLocally(id);
+		if (clusterService == null) {
+			return;
+		}
+		for (DiscoveryNode node : clusterService.state().nodes()) {
+			if (node.id().equals(clusterService.localNode().id())) {
+				continue;
+			}
+			try {
+				transportService.sendRequest(node, ACTION, new CancelRequest(id),
+						EmptyTransportResponseHandler.INSTANCE_SAME);
+			} catch (Exception e) {
+				logger.debug("failed to send the cancellation of [{}] to {}", e, id, node);
+			}
+		}
+	}
+
+	public boolean isCancelled(String id) {
+		return cancelled.getIfPresent(id) != null;
+	}
+
+	/**
+	 * throws a {@link HighlightCancelledException} when the request was
+	 * cancelled, requests without an id can not be cancelled.
+	 */
+	public void check(String id) {
+		if (id != null && isCancelled(id)) {
+			throw new HighlightCancelledException(id);
+		}
+	}
+
+	public long cancelledCount() {
+		return cancelledCount.get();
+	}
+
+	private void cancelLocally(String id) {
+		if (cancelled.asMap().putIfAbsent(id, Boolean.TRUE) == null) {
+			cancelledCount.incrementAndGet();
+		}
+	}
+
+	static class CancelRequest extends TransportRequest {
+
+		String id;
+
+		CancelRequest() {
+		}
+
+		CancelRequest(String id) {
+			this.id = id;
+		}
+
+		@Override
+		public void readFrom(StreamInput in) throws IOException {
+			super.readFrom(in);
+			id = in.readString();
+		}
+
+		@Override
+		public void writeTo(StreamOutput out) throws IOException {
+			super.writeTo(out);
+			out.writeString(id);
+		}
+	}
+
+	private class CancelHandler extends BaseTransportRequestHandler<CancelRequest> {
+
+		@Override
+		public CancelRequest newInstance() {
+			return new CancelRequest();
+		}
+
+		@Override
+		public void messageReceived(CancelRequest request, TransportChannel channel) throws Exception {
+			cancelLocally(request.id);
+			channel.sendResponse(TransportResponse.Empty.INSTANCE);
+		}
+
+		@Override
+		public String executor() {
+			return ThreadPool.Names.SAME;
+		}
+	}
+}
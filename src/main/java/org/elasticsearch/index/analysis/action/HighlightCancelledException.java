@@ -0,0 +1,15 @@
+package org.elasticsearch.index.analysis.action;
+
+import org.elasticsearch.ElasticSearchException;
+
+/**
+ * Thrown by the highlight loops once their request was cancelled.
+ */
+public class HighlightCancelledException extends ElasticSearchException {
+
+	private static final long serialVersionUID = 1L;
+
+	public HighlightCancelledException(String id) {
+		super("highlight request [" + id + "] was cancelled");
+	}
+}
@@ -1,14 +1,34 @@
 package org.elasticsearch.index.analysis.action;
 
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+import java.io.IOException;
+
+import org.elasticsearch.action.ActionRequestValidationException;
 import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchHits;
 
+/**
+ * The hits of a search page to post process. The request is streamable, so
+ * the post processing can run on the node of {@link #setNodeId(String)}.
+ */
 public class HighlightRequest extends SearchRequest {
 
 	private SearchHits searchHits;
 	private String size;
+	private String nodeId;
+	// not streamed, the took of a forwarded request starts on its node
 	private final long startTime = System.currentTimeMillis();
-	
+
+	public HighlightRequest() {
+		// the hits carry their indices, a search request streams its own
+		super(Strings.EMPTY_ARRAY);
+	}
+
 	public SearchHits searchHits() {
 		return searchHits;
 	}
@@ -24,8 +44,56 @@ public class HighlightRequest extends SearchRequest {
 	public String size(){
 		return size;
 	}
-	
+
+	/**
+	 * the node to post process on, null for the node which executes the
+	 * request.
+	 */
+	public void setNodeId(String nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public String nodeId() {
+		return nodeId;
+	}
+
 	public long startTime(){
 		return startTime;
 	}
+
+	@Override
+	public ActionRequestValidationException validate() {
+		// the hits are searched already, the request needs no search source
+		ActionRequestValidationException validationException = null;
+		if (searchHits == null) {
+			validationException = addValidationError("search hits are missing", validationException);
+		}
+		if (size == null) {
+			validationException = addValidationError("size is missing", validationException);
+		}
+		return validationException;
+	}
+
+	@Override
+	public void readFrom(StreamInput in) throws IOException {
+		super.readFrom(in);
+		if (in.readBoolean()) {
+			searchHits = InternalSearchHits.readSearchHits(in);
+		}
+		size = in.readOptionalString();
+		nodeId = in.readOptionalString();
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		super.writeTo(out);
+		if (searchHits == null) {
+			out.writeBoolean(false);
+		} else {
+			out.writeBoolean(true);
+			searchHits.writeTo(out);
+		}
+		out.writeOptionalString(size);
+		out.writeOptionalString(nodeId);
+	}
 }
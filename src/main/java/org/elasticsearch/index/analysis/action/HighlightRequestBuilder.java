@@ -19,7 +19,7 @@ public class HighlightRequestBuilder extends
 
 	@Override
 	protected void doExecute(ActionListener<HighlightResponse> listener) {
-		((Client) client).execute(HighlightAction.INSTANCE, request);
+		((Client) client).execute(HighlightAction.INSTANCE, request, listener);
 	}
 
 	public HighlightRequestBuilder searchHits(SearchHits searchHits) {
@@ -31,4 +31,12 @@ public class HighlightRequestBuilder extends
 		request.setSize(size);
 		return this;
 	}
+
+	/**
+	 * post processes the hits on the node.
+	 */
+	public HighlightRequestBuilder nodeId(String nodeId) {
+		request.setNodeId(nodeId);
+		return this;
+	}
 }
@@ -1,25 +1,87 @@
 package org.elasticsearch.index.analysis.action;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchHits.StreamContext.ShardTargetType;
 
+/**
+ * The post processed hits. A response of another node carries copies of the
+ * hits, so the rendered values are read by {@link #values(int)} rather than
+ * from the hits of the request.
+ */
 public class HighlightResponse extends ActionResponse {
 
 	Map<String, SearchHit> searchMap;
 
 	private long tookInMillis = -1;
 
+	private SearchHits hits;
+
+	// the rendered values of the hits, only set when read from a stream
+	private List<Map<String, Object>> values;
+
+	HighlightResponse() {
+	}
+
 	public HighlightResponse(long tookInMillis) {
 		this.tookInMillis = tookInMillis;
 	}
 
+	public HighlightResponse(long tookInMillis, SearchHits hits) {
+		this.tookInMillis = tookInMillis;
+		this.hits = hits;
+	}
+
 	public long tookInMillis() {
 		return tookInMillis;
 	}
 
+	/**
+	 * the post processed hits, the highlight fragments are rendered.
+	 */
+	public SearchHits hits() {
+		return hits;
+	}
+
+	/**
+	 * the rendered source or "partial" values of the hit at the index.
+	 */
+	public Map<String, Object> values(int hit) {
+		if (values != null) {
+			return values.get(hit);
+		}
+		return values(hits.getAt(hit));
+	}
+
+	/**
+	 * the values the post processing renders in place, the source of the hit
+	 * or its "partial" field.
+	 */
+	static Map<String, Object> values(SearchHit searchHit) {
+		if (searchHit.source() != null) {
+			return searchHit.sourceAsMap();
+		}
+		if (searchHit.fields() != null) {
+			SearchHitField searchHitField = searchHit.getFields().get("partial");
+			if (searchHitField != null) {
+				return searchHitField.getValue();
+			}
+		}
+		return null;
+	}
+
 	public Map<String, SearchHit> getSearchMap() {
 		if (searchMap == null)
 			return null;
@@ -33,4 +95,58 @@ public class HighlightResponse extends ActionResponse {
 		searchMap.put(id, searchHit);
 	}
 
+	@Override
+	public void readFrom(StreamInput in) throws IOException {
+		super.readFrom(in);
+		tookInMillis = in.readVLong();
+		if (in.readBoolean()) {
+			hits = InternalSearchHits.readSearchHits(in);
+			int count = in.readVInt();
+			values = new ArrayList<Map<String, Object>>(count);
+			for (int i = 0; i < count; i++) {
+				values.add(in.readBoolean() ? in.readMap() : null);
+			}
+		}
+		int size = in.readVInt();
+		if (size > 0) {
+			searchMap = new HashMap<String, SearchHit>(size);
+			for (int i = 0; i < size; i++) {
+				searchMap.put(in.readString(), InternalSearchHit.readSearchHit(in, InternalSearchHits.streamContext()
+						.streamShardTarget(ShardTargetType.STREAM)));
+			}
+		}
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		super.writeTo(out);
+		out.writeVLong(tookInMillis);
+		if (hits == null) {
+			out.writeBoolean(false);
+		} else {
+			out.writeBoolean(true);
+			hits.writeTo(out);
+			// the hits stream their source as searched, not the rendered map
+			SearchHit[] searchHits = hits.getHits();
+			out.writeVInt(searchHits.length);
+			for (int i = 0; i < searchHits.length; i++) {
+				Map<String, Object> value = values(i);
+				if (value == null) {
+					out.writeBoolean(false);
+				} else {
+					out.writeBoolean(true);
+					out.writeMap(value);
+				}
+			}
+		}
+		if (searchMap == null) {
+			out.writeVInt(0);
+		} else {
+			out.writeVInt(searchMap.size());
+			for (Map.Entry<String, SearchHit> entry : searchMap.entrySet()) {
+				out.writeString(entry.getKey());
+				entry.getValue().writeTo(out);
+			}
+		}
+	}
 }
@@ -0,0 +1,126 @@
+package org.elasticsearch.index.analysis.action;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Shadow mode of nelo-highlight: on a sample of the highlighted fields
+ * ("highlight.shadow.sample", 0 to 1, default 0 disables it) the candidate
+ * engine renders the field as well. The response always carries the output of
+ * the current engine; the timings and the number of differing fields are kept
+ * here and every difference is written to the "highlight.shadow" logger.
+ * <p>
+ * The candidate engine matches the analyzed form of each token (the term the
+ * query was built from) instead of the lower cased text of the token.
+ */
+public class HighlightShadowService extends AbstractComponent {
+
+	private static final int DIFF_CONTEXT = 60;
+
+	private final ESLogger diffLogger;
+
+	private final double sample;
+
+	private final AtomicLong sampled = new AtomicLong();
+
+	private final AtomicLong different = new AtomicLong();
+
+	private final AtomicLong currentNanos = new AtomicLong();
+
+	private final AtomicLong candidateNanos = new AtomicLong();
+
+	@Inject
+	public HighlightShadowService(Settings settings) {
+		super(settings);
+		this.diffLogger = Loggers.getLogger("highlight.shadow", settings);
+		this.sample = settings.getAsDouble("highlight.shadow.sample", 0d);
+	}
+
+	public double sample() {
+		return sample;
+	}
+
+	/**
+	 * whether the candidate engine should also render the current field.
+	 */
+	public boolean shouldSample() {
+		return sample > 0 && (sample >= 1 || ThreadLocalRandom.current().nextDouble() < sample);
+	}
+
+	/**
+	 * whether the candidate engine renders a sampled field before the current
+	 * one, so neither engine always runs on data the other one warmed.
+	 */
+	public boolean candidateFirst() {
+		return ThreadLocalRandom.current().nextBoolean();
+	}
+
+	/**
+	 * records one sampled field, the fragments are compared in order.
+	 */
+	public void record(String description, List<String> current, long currentTook, List<String> candidate,
+			long candidateTook) {
+		sampled.incrementAndGet();
+		currentNanos.addAndGet(currentTook);
+		candidateNanos.addAndGet(candidateTook);
+
+		int fragment = firstDifference(current, candidate);
+		if (fragment == -1) {
+			return;
+		}
+		different.incrementAndGet();
+		if (diffLogger.isInfoEnabled()) {
+			String currentText = fragment < current.size() ? current.get(fragment) : "";
+			String candidateText = fragment < candidate.size() ? candidate.get(fragment) : "";
+			int at = 0;
+			int length = Math.min(currentText.length(), candidateText.length());
+			while (at < length && currentText.charAt(at) == candidateText.charAt(at)) {
+				at++;
+			}
+			diffLogger.info("{}, fragments[{}/{}], fragment[{}], char[{}], current[{}], candidate[{}], "
+					+ "current_took[{}], candidate_took[{}]", description, current.size(), candidate.size(),
+					fragment, at, window(currentText, at), window(candidateText, at),
+					TimeValue.timeValueNanos(currentTook), TimeValue.timeValueNanos(candidateTook));
+		}
+	}
+
+	public long sampledCount() {
+		return sampled.get();
+	}
+
+	public long differentCount() {
+		return different.get();
+	}
+
+	public long currentNanos() {
+		return currentNanos.get();
+	}
+
+	public long candidateNanos() {
+		return candidateNanos.get();
+	}
+
+	private static int firstDifference(List<String> current, List<String> candidate) {
+		int size = Math.min(current.size(), candidate.size());
+		for (int i = 0; i < size; i++) {
+			if (!current.get(i).equals(candidate.get(i))) {
+				return i;
+			}
+		}
+		return current.size() == candidate.size() ? -1 : size;
+	}
+
+	private static String window(String text, int at) {
+		int from = Math.max(0, at - DIFF_CONTEXT);
+		int to = Math.min(text.length(), at + DIFF_CONTEXT);
+		return text.substring(from, to);
+	}
+}
@@ -0,0 +1,112 @@
+package org.elasticsearch.index.analysis.action;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Slow log of the highlight pipeline, written to the "highlight.slowlog.*"
+ * loggers.
+ * <p>
+ * "request" entries are written by the rest endpoint, "field" entries by
+ * nelo-highlight for every highlighted field of a hit on the shard, and
+ * "post_process" entries by {@link TransportHighlightAction}. Each kind has
+ * its own "highlight.slowlog.[kind].threshold.warn / info" settings, -1 (the
+ * default) disables the level.
+ */
+public class HighlightSlowLog {
+
+	private final ESLogger logger;
+
+	private final long warnThreshold;
+
+	private final long infoThreshold;
+
+	public HighlightSlowLog(Settings settings, String kind) {
+		this.logger = Loggers.getLogger("highlight.slowlog." + kind, settings);
+		String prefix = "highlight.slowlog." + kind + ".threshold.";
+		this.warnThreshold = settings.getAsTime(prefix + "warn", TimeValue.timeValueNanos(-1)).nanos();
+		this.infoThreshold = settings.getAsTime(prefix + "info", TimeValue.timeValueNanos(-1)).nanos();
+	}
+
+	public boolean enabled() {
+		return warnThreshold >= 0 || infoThreshold >= 0;
+	}
+
+	/**
+	 * starts the timing of a new entry, the entry is cheap but should only be
+	 * created when {@link #enabled()}.
+	 */
+	public Entry start() {
+		return new Entry();
+	}
+
+	public void log(Entry entry) {
+		long took = System.nanoTime() - entry.startTime;
+		if (warnThreshold >= 0 && took > warnThreshold) {
+			logger.warn("{}", entry.toString(took));
+		} else if (infoThreshold >= 0 && took > infoThreshold) {
+			logger.info("{}", entry.toString(took));
+		}
+	}
+
+	public static class Entry {
+
+		private final long startTime = System.nanoTime();
+
+		private long lastMark = startTime;
+
+		private final Map<String, Long> phases = new LinkedHashMap<String, Long>(8);
+
+		private final Map<String, Object> values = new LinkedHashMap<String, Object>(8);
+
+		/**
+		 * records the time since the previous mark (or the start) as the given
+		 * phase, a phase recorded more than once is summed up.
+		 */
+		public Entry mark(String phase) {
+			long now = System.nanoTime();
+			add(phase, now - lastMark);
+			lastMark = now;
+			return this;
+		}
+
+		/**
+		 * adds nanoseconds measured elsewhere to the given phase.
+		 */
+		public Entry add(String phase, long nanos) {
+			Long current = phases.get(phase);
+			phases.put(phase, current == null ? nanos : current + nanos);
+			return this;
+		}
+
+		public Entry value(String name, Object value) {
+			values.put(name, value);
+			return this;
+		}
+
+		String toString(long took) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("took[").append(TimeValue.timeValueNanos(took)).append("], took_millis[")
+					.append(TimeUnit.NANOSECONDS.toMillis(took)).append("], phases[");
+			boolean first = true;
+			for (Map.Entry<String, Long> phase : phases.entrySet()) {
+				if (!first) {
+					sb.append(", ");
+				}
+				first = false;
+				sb.append(phase.getKey()).append('=').append(TimeValue.timeValueNanos(phase.getValue()));
+			}
+			sb.append(']');
+			for (Map.Entry<String, Object> value : values.entrySet()) {
+				sb.append(", ").append(value.getKey()).append('[').append(value.getValue()).append(']');
+			}
+			return sb.toString();
+		}
+	}
+}
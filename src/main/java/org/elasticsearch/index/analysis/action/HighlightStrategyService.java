@@ -0,0 +1,153 @@
+package org.elasticsearch.index.analysis.action;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+/**
+ * The running statistics nelo-highlight selects its strategy per field and
+ * value with, and the strategies it selected.
+ * <ul>
+ * <li>not_analyzed: the value is rendered as one token.</li>
+ * <li>prefilter: the query has no terms for the value, the tokens are wrapped
+ * without being matched.</li>
+ * <li>term_vector: the tokens are read from the term vector of a single
+ * valued field mapped with offsets, once the values of the field average
+ * "highlight.strategy.term_vector_min_chars" (default 256) chars. Shorter
+ * values are analyzed faster than their vector is read.</li>
+ * <li>analyze: the value is analyzed again.</li>
+ * </ul>
+ * "highlight.strategy.adaptive" set to false reads every term vector it can,
+ * like before.
+ */
+public class HighlightStrategyService extends AbstractComponent {
+
+	public static enum Strategy {
+		NOT_ANALYZED, PREFILTER, TERM_VECTOR, ANALYZE;
+
+		public String value() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	private final boolean adaptive;
+
+	private final int termVectorMinChars;
+
+	private final ConcurrentMap<String, FieldStats> fields = ConcurrentCollections.newConcurrentMap();
+
+	@Inject
+	public HighlightStrategyService(Settings settings) {
+		super(settings);
+		this.adaptive = settings.getAsBoolean("highlight.strategy.adaptive", true);
+		this.termVectorMinChars = settings.getAsInt("highlight.strategy.term_vector_min_chars", 256);
+	}
+
+	public boolean adaptive() {
+		return adaptive;
+	}
+
+	public int termVectorMinChars() {
+		return termVectorMinChars;
+	}
+
+	public FieldStats field(String field) {
+		FieldStats stats = fields.get(field);
+		if (stats == null) {
+			stats = new FieldStats();
+			FieldStats existing = fields.putIfAbsent(field, stats);
+			if (existing != null) {
+				stats = existing;
+			}
+		}
+		return stats;
+	}
+
+	public Map<String, FieldStats> fields() {
+		return fields;
+	}
+
+	/**
+	 * whether the term vector of the field is worth reading, the first value
+	 * of a field decides by its own length.
+	 */
+	public boolean readTermVector(FieldStats stats, int chars) {
+		if (!adaptive) {
+			return true;
+		}
+		long values = stats.values();
+		long average = values == 0 ? chars : stats.chars() / values;
+		return average >= termVectorMinChars;
+	}
+
+	/**
+	 * the statistics of one field over the shards of this node.
+	 */
+	public static class FieldStats {
+
+		private final AtomicLong values = new AtomicLong();
+
+		private final AtomicLong chars = new AtomicLong();
+
+		private final AtomicLong termVectorMisses = new AtomicLong();
+
+		private final AtomicLongArray selected = new AtomicLongArray(Strategy.values().length);
+
+		private final AtomicLongArray hits = new AtomicLongArray(Strategy.values().length);
+
+		private volatile Strategy last;
+
+		/**
+		 * records the strategy the values of a field were rendered with and
+		 * whether a token of them matched the query.
+		 */
+		public void record(Strategy strategy, int values, long chars, boolean hit) {
+			this.values.addAndGet(values);
+			this.chars.addAndGet(chars);
+			selected.incrementAndGet(strategy.ordinal());
+			if (hit) {
+				hits.incrementAndGet(strategy.ordinal());
+			}
+			last = strategy;
+		}
+
+		/**
+		 * the field is mapped with term vector offsets, but the document has
+		 * no vector or the vector does not fit the value.
+		 */
+		public void termVectorMiss() {
+			termVectorMisses.incrementAndGet();
+		}
+
+		public long values() {
+			return values.get();
+		}
+
+		public long chars() {
+			return chars.get();
+		}
+
+		public long termVectorMisses() {
+			return termVectorMisses.get();
+		}
+
+		public long selected(Strategy strategy) {
+			return selected.get(strategy.ordinal());
+		}
+
+		public long hits(Strategy strategy) {
+			return hits.get(strategy.ordinal());
+		}
+
+		public Strategy last() {
+			return last;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package org.elasticsearch.index.analysis.action;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.highlight.NeloHighlighter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.FastStringReader;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.fieldvisitor.UidAndSourceFieldsVisitor;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.index.shard.IndexShardState;
+import org.elasticsearch.index.shard.service.IndexShard;
+import org.elasticsearch.indices.IndicesLifecycle;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Warms nelo-highlight when a shard starts, on node start as well as for the
+ * indices created by the daily rollover, on the warmer thread pool.
+ * <p>
+ * The analyzers of every analyzed string field are resolved and run once.
+ * With "highlight.warmer.queries" set, each query is also parsed per field
+ * and replayed through the term extraction and rendering of nelo-highlight on
+ * "highlight.warmer.docs" (default 10) documents of the shard,
+ * "highlight.warmer.iterations" (default 1) times. "highlight.warmer.enabled"
+ * (default true) turns the warmer off.
+ */
+public class HighlightWarmer extends AbstractComponent {
+
+	private final IndicesService indicesService;
+
+	private final NeloHighlighter highlighter;
+
+	private final String[] queries;
+
+	private final int docs;
+
+	private final int iterations;
+
+	@Inject
+	public HighlightWarmer(Settings settings, IndicesService indicesService, final ThreadPool threadPool,
+			NeloHighlighter highlighter) {
+		super(settings);
+		this.indicesService = indicesService;
+		this.highlighter = highlighter;
+		this.queries = settings.getAsArray("highlight.warmer.queries");
+		this.docs = settings.getAsInt("highlight.warmer.docs", 10);
+		this.iterations = settings.getAsInt("highlight.warmer.iterations", 1);
+
+		if (settings.getAsBoolean("highlight.warmer.enabled", true)) {
+			indicesService.indicesLifecycle().addListener(new IndicesLifecycle.Listener() {
+				@Override
+				public void afterIndexShardStarted(final IndexShard indexShard) {
+					threadPool.executor(ThreadPool.Names.WARMER).execute(new Runnable() {
+						@Override
+						public void run() {
+							warm(indexShard);
+						}
+					});
+				}
+			});
+		}
+	}
+
+	void warm(IndexShard indexShard) {
+		if (indexShard.state() != IndexShardState.STARTED) {
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			IndexService indexService = indicesService.indexService(indexShard.shardId().index().name());
+			if (indexService == null) {
+				return;
+			}
+			int fields = 0;
+			for (DocumentMapper docMapper : indexService.mapperService()) {
+				for (FieldMapper<?> mapper : docMapper.mappers()) {
+					if (isAnalyzedString(mapper)) {
+						analyze(mapper.indexAnalyzer(), mapper.names().indexName());
+						analyze(mapper.searchAnalyzer(), mapper.names().indexName());
+						fields++;
+					}
+				}
+			}
+
+			int rendered = 0;
+			if (queries.length > 0 && docs > 0) {
+				rendered = replay(indexShard, indexService);
+			}
+			if (logger.isDebugEnabled()) {
+				logger.debug("{} warmed highlighting of [{}] fields, [{}] values rendered, took [{}]",
+						indexShard.shardId(), fields, rendered,
+						TimeValue.timeValueNanos(System.nanoTime() - start));
+			}
+		} catch (Throwable t) {
+			logger.warn("{} failed to warm highlighting", t, indexShard.shardId());
+		}
+	}
+
+	private int replay(IndexShard indexShard, IndexService indexService) throws Exception {
+		int rendered = 0;
+		Engine.Searcher searcher = indexShard.searcher();
+		try {
+			IndexReader reader = searcher.reader();
+			Bits liveDocs = MultiFields.getLiveDocs(reader);
+			int step = Math.max(1, reader.maxDoc() / docs);
+			UidAndSourceFieldsVisitor visitor = new UidAndSourceFieldsVisitor();
+			for (int docId = 0, sampled = 0; docId < reader.maxDoc() && sampled < docs; docId += step) {
+				if (liveDocs != null && !liveDocs.get(docId)) {
+					continue;
+				}
+				visitor.reset();
+				reader.document(docId, visitor);
+				if (visitor.source() == null || visitor.uid() == null) {
+					continue;
+				}
+				DocumentMapper docMapper = indexService.mapperService().documentMapper(visitor.uid().type());
+				if (docMapper == null) {
+					continue;
+				}
+				sampled++;
+				Map<String, Object> source = XContentHelper.convertToMap(visitor.source(), false).v2();
+				for (FieldMapper<?> mapper : docMapper.mappers()) {
+					if (!isAnalyzedString(mapper)) {
+						continue;
+					}
+					List<Object> values = XContentMapValues.extractRawValues(mapper.names().sourcePath(), source);
+					if (values.isEmpty()) {
+						continue;
+					}
+					for (String queryString : queries) {
+						Query query = new QueryParser(Version.LUCENE_43, mapper.names().indexName(),
+								mapper.searchAnalyzer()).parse(queryString);
+						for (int i = 0; i < iterations; i++) {
+							render(mapper, docMapper.mappers().indexAnalyzer(), query, values);
+							rendered += values.size();
+						}
+					}
+				}
+			}
+		} finally {
+			searcher.release();
+		}
+		return rendered;
+	}
+
+	private void render(FieldMapper<?> mapper, Analyzer analyzer, Query query, List<Object> values)
+			throws Exception {
+		ArrayList<String> terms = new ArrayList<String>();
+		for (Object value : values) {
+			terms.addAll(highlighter.terms(query, analyzer, mapper.names().indexName(), mapper.names().name(),
+					value.toString(), null));
+		}
+		highlighter.render(analyzer, mapper.names().indexName(), true, values, new NeloHighlighter.QueryTerms(terms),
+				"<em>", "</em>", Long.MAX_VALUE);
+	}
+
+	private static void analyze(Analyzer analyzer, String field) throws Exception {
+		if (analyzer == null) {
+			return;
+		}
+		TokenStream ts = analyzer.tokenStream(field, new FastStringReader("warm up"));
+		ts.reset();
+		while (ts.incrementToken()) {
+		}
+		ts.end();
+		ts.close();
+	}
+
+	private static boolean isAnalyzedString(FieldMapper<?> mapper) {
+		return mapper.fieldType().indexed() && mapper.fieldType().tokenized() && !mapper.names().name().startsWith("_")
+				&& "string".equals(mapper.fieldDataType() == null ? null : mapper.fieldDataType().getType());
+	}
+}
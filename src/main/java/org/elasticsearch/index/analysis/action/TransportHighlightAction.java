@@ -14,10 +14,13 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.support.TransportAction;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.io.FastStringReader;
 import org.elasticsearch.common.settings.Settings;
@@ -27,10 +30,14 @@ import org.elasticsearch.common.unit.SizeValue;
 import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.indices.analysis.IndicesAnalysisService;
 import org.elasticsearch.search.SearchHit;
-import org.elasticsearch.search.SearchHitField;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.highlight.HighlightField;
 import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.BaseTransportRequestHandler;
+import org.elasticsearch.transport.BaseTransportResponseHandler;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportService;
 
 public class TransportHighlightAction extends TransportAction<HighlightRequest, HighlightResponse> {
 
@@ -38,42 +45,93 @@ public class TransportHighlightAction extends TransportAction<HighlightRequest,
 
 	private ClusterService clusterService;
 
+	private final TransportService transportService;
+
 	private final HashSet<String> fieldSet = new HashSet<String>();
 
 	private final String PRE_I = "<i>";
 	private final String POST_I = "</i>";
 
-	private final String[] SYSTEMFIELDS = new String[] { "body", "projectName", "projectVersion", "logType",
+	private static final String[] SYSTEMFIELDS = new String[] { "body", "projectName", "projectVersion", "logType",
 			"logSource", "host" };
 
 	private final String[] CURRENT_SYS_FIELDS;
 
+	private final HighlightSlowLog slowLog;
+
 	private enum TYPE {
 		NOT_ANALYZED, ANALYZED, NOCHANGED
 	}
 
 	@Inject
 	protected TransportHighlightAction(Settings settings, ThreadPool threadPool, IndicesService indicesService,
-			IndicesAnalysisService indicesAnalysisService, ClusterService clusterService) {
+			IndicesAnalysisService indicesAnalysisService, ClusterService clusterService,
+			TransportService transportService) {
 		super(settings, threadPool);
 		this.indicesAnalysisService = indicesAnalysisService;
 		this.clusterService = clusterService;
+		this.transportService = transportService;
+		transportService.registerHandler(HighlightAction.NAME, new TransportHandler());
 
-		String[] settingFields = settings.getAsArray("highlight.fields.exclude");
-		if (settingFields == null || settingFields.length == 0) {
-			CURRENT_SYS_FIELDS = SYSTEMFIELDS;
-		} else {
-			CURRENT_SYS_FIELDS = settingFields;
-		}
+		CURRENT_SYS_FIELDS = limitedFields(settings);
 
 		for (int i = 0; i < CURRENT_SYS_FIELDS.length; i++) {
 			fieldSet.add(CURRENT_SYS_FIELDS[i]);
 		}
+		this.slowLog = new HighlightSlowLog(settings, "post_process");
+	}
+
+	/**
+	 * the fields whose rendered values are cut at the size of the request.
+	 */
+	public static String[] limitedFields(Settings settings) {
+		String[] settingFields = settings.getAsArray("highlight.fields.exclude");
+		if (settingFields == null || settingFields.length == 0) {
+			return SYSTEMFIELDS;
+		}
+		return settingFields;
 	}
 
 	@Override
-	protected void doExecute(HighlightRequest request, ActionListener<HighlightResponse> listener) {
+	protected void doExecute(HighlightRequest request, final ActionListener<HighlightResponse> listener) {
+		if (request.nodeId() != null) {
+			DiscoveryNodes nodes = clusterService.state().nodes();
+			if (!request.nodeId().equals(nodes.localNodeId())) {
+				DiscoveryNode node = nodes.get(request.nodeId());
+				if (node == null) {
+					listener.onFailure(new ElasticSearchIllegalArgumentException("no node [" + request.nodeId()
+							+ "] to post process the hits on"));
+					return;
+				}
+				transportService.sendRequest(node, HighlightAction.NAME, request,
+						new BaseTransportResponseHandler<HighlightResponse>() {
+							@Override
+							public HighlightResponse newInstance() {
+								return new HighlightResponse();
+							}
+
+							@Override
+							public void handleResponse(HighlightResponse response) {
+								listener.onResponse(response);
+							}
+
+							@Override
+							public void handleException(TransportException exp) {
+								listener.onFailure(exp);
+							}
+
+							@Override
+							public String executor() {
+								return ThreadPool.Names.SAME;
+							}
+						});
+				return;
+			}
+		}
 
+		HighlightSlowLog.Entry slowLogEntry = slowLog.enabled() ? slowLog.start() : null;
+		HashSet<String> highlightedFields = slowLogEntry == null ? null : new HashSet<String>();
+		long chars = 0;
 		SearchHits searchHits = request.searchHits();
 		
 		String size = request.size();
@@ -95,17 +153,10 @@ public class TransportHighlightAction extends TransportAction<HighlightRequest,
 				Map<String, Object> mappingMap = state.getMetaData().getIndices().get(index).mapping(type)
 						.sourceAsMap();
 
-				Map<String, Object> fieldValue = null;
-				if (searchHit.source() != null) {
-					// we must not using this field.
-					fieldValue = searchHit.sourceAsMap();
-				} else if (searchHit.fields() != null) {
-					SearchHitField searchHitField = searchHit.getFields().get("partial");
-					if (searchHitField != null) {
-						if (searchHitField.getValue() != null) {
-							fieldValue = searchHitField.getValue();
-						}
-					}
+				Map<String, Object> fieldValue = HighlightResponse.values(searchHit);
+
+				if (slowLogEntry != null) {
+					slowLogEntry.mark("load");
 				}
 
 				List<String> highLightField = new ArrayList<String>();
@@ -122,17 +173,10 @@ public class TransportHighlightAction extends TransportAction<HighlightRequest,
 						HashSet<String> highlightList = null;
 
 						if (text.indexOf('&') != -1) {
-							StringWriter writer = null;
 							try {
-								writer = new StringWriter();
-								doUnescape(writer, text, text.indexOf('&'));
-								logger.debug("writer info : " + writer.toString());
-								text = writer.toString();
-								writer.close();
+								text = unescape(text);
+								logger.debug("writer info : " + text);
 							} catch (Exception se) {
-							} finally {
-								if (writer != null)
-									writer.close();
 							}
 						}
 						if (text.replaceAll("<em>", "").replace("</em>", "").length() < originalText.length()) {
@@ -150,8 +194,15 @@ public class TransportHighlightAction extends TransportAction<HighlightRequest,
 									originalText, null, highlightList, realSize);
 						}
 						field.fragments()[i] = new StringText(finalText);
+						if (slowLogEntry != null) {
+							chars += finalText.length();
+						}
 					}
 				}
+				if (slowLogEntry != null) {
+					highlightedFields.addAll(highLightField);
+					slowLogEntry.mark("highlight_fields");
+				}
 
 				for (String key : fieldValue.keySet()) {
 					if (highLightField.contains(key)) {
@@ -169,6 +220,12 @@ public class TransportHighlightAction extends TransportAction<HighlightRequest,
 								null, null, realSize);
 					}
 					fieldValue.put(key, finalText);
+					if (slowLogEntry != null) {
+						chars += finalText.length();
+					}
+				}
+				if (slowLogEntry != null) {
+					slowLogEntry.mark("source_fields");
 				}
 
 			}
@@ -176,7 +233,79 @@ public class TransportHighlightAction extends TransportAction<HighlightRequest,
 			logger.error("plugin", e);
 		}
 
-		listener.onResponse(new HighlightResponse(System.currentTimeMillis() - request.startTime()));
+		if (slowLogEntry != null) {
+			slowLogEntry.value("hits", searchHits.getHits().length);
+			slowLogEntry.value("fields", highlightedFields);
+			slowLogEntry.value("chars", chars);
+			slowLog.log(slowLogEntry);
+		}
+
+		listener.onResponse(new HighlightResponse(System.currentTimeMillis() - request.startTime(), searchHits));
+	}
+
+	/**
+	 * post processes the hits a coordinating node sent.
+	 */
+	private class TransportHandler extends BaseTransportRequestHandler<HighlightRequest> {
+
+		@Override
+		public HighlightRequest newInstance() {
+			return new HighlightRequest();
+		}
+
+		@Override
+		public void messageReceived(HighlightRequest request, final TransportChannel channel) throws Exception {
+			// already on the search pool
+			request.listenerThreaded(false);
+			execute(request, new ActionListener<HighlightResponse>() {
+				@Override
+				public void onResponse(HighlightResponse response) {
+					try {
+						channel.sendResponse(response);
+					} catch (Exception e) {
+						onFailure(e);
+					}
+				}
+
+				@Override
+				public void onFailure(Throwable e) {
+					try {
+						channel.sendResponse(e);
+					} catch (Exception e1) {
+						logger.warn("Failed to send response for " + HighlightAction.NAME, e1);
+					}
+				}
+			});
+		}
+
+		@Override
+		public String executor() {
+			return ThreadPool.Names.SEARCH;
+		}
+	}
+
+	/**
+	 * renders one value of the field like the post processing of a hit. The
+	 * terms are the highlighted terms of the value, null when the field is
+	 * not highlighted. The limit only cuts the limited fields.
+	 */
+	public String render(Map<String, Object> mapping, String fieldName, String value, HashSet<String> terms,
+			long limit) throws IOException {
+		return convertString(new HashMap<Object, StringBuilder>(1), fieldName, new HashMap<String, Analyzer>(0),
+				mapping, fieldName, value, null, terms, limit);
+	}
+
+	/**
+	 * the fragment with its html entities unescaped.
+	 */
+	public String unescape(String text) throws IOException {
+		int firstAmp = text.indexOf('&');
+		if (firstAmp == -1) {
+			return text;
+		}
+		StringWriter writer = new StringWriter(text.length());
+		doUnescape(writer, text, firstAmp);
+		return writer.toString();
 	}
 
 	private String convertString(Map<Object, StringBuilder> builderCache, String key,
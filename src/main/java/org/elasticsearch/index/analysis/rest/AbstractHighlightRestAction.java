@@ -0,0 +1,784 @@
+package org.elasticsearch.index.analysis.rest;
+
+import static org.elasticsearch.common.unit.TimeValue.parseTimeValue;
+import static org.elasticsearch.rest.RestStatus.BAD_REQUEST;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+import static org.elasticsearch.search.suggest.SuggestBuilder.termSuggestion;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateRequestBuilder;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.action.search.SearchOperationThreading;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.support.IgnoreIndices;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.joda.FormatDateTimeFormatter;
+import org.elasticsearch.common.joda.Joda;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.SizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.analysis.action.TransportHighlightAction;
+import org.elasticsearch.index.analysis.script.TruncatedSourceScript;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.QueryStringQueryBuilder;
+import org.elasticsearch.indices.IndexMissingException;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.action.support.RestActions;
+import org.elasticsearch.search.Scroll;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+
+/**
+ * Request parsing, field resolution and source rewrite shared by the
+ * "_highlight" rest endpoints.
+ */
+public abstract class AbstractHighlightRestAction extends BaseRestHandler {
+
+	private final int MAX_FIELD_LENGTH = 50;
+
+	/**
+	 * catch-all field (e.g. "_all" or a copy field) the query_string is run
+	 * against instead of every string field of the mapping.
+	 */
+	private final String combinedField;
+
+	protected final ClusterService clusterService;
+
+	private final FormatDateTimeFormatter timestampFormatter = Joda.forPattern("dateOptionalTime");
+
+	/**
+	 * date format of the index name suffix of time based indices (e.g.
+	 * "yyyy.MM.dd" for "nelo2-log-2013.07.01"), null when not used.
+	 */
+	private final FormatDateTimeFormatter indexDateFormatter;
+
+	private final TimeValue indexDateInterval;
+
+	/**
+	 * whether a "limit" cuts the long values of the source on the shards.
+	 */
+	private final boolean truncateSource;
+
+	private final List<String> limitedFields;
+
+	/**
+	 * the timestamp field hits are sorted by when paging with a "cursor".
+	 */
+	private final String cursorField;
+
+	/**
+	 * the fields highlighted in listing mode, and their snippet size.
+	 */
+	private final List<String> listingFields;
+
+	private final String listingSnippetSize;
+
+	protected AbstractHighlightRestAction(Settings settings, Client client, ClusterService clusterService) {
+		super(settings, client);
+		this.clusterService = clusterService;
+		this.combinedField = settings.get("highlight.query.combined_field");
+		String indexDateFormat = settings.get("highlight.index.date_format");
+		this.indexDateFormatter = indexDateFormat == null ? null : Joda.forPattern(indexDateFormat);
+		this.indexDateInterval = settings.getAsTime("highlight.index.date_interval", TimeValue.timeValueHours(24));
+		this.truncateSource = settings.getAsBoolean("highlight.source.truncate", false);
+		this.limitedFields = Arrays.asList(TransportHighlightAction.limitedFields(settings));
+		this.cursorField = settings.get("highlight.cursor.field", "@timestamp");
+		this.listingFields = Arrays.asList(settings.getAsArray("highlight.listing.fields", new String[] { "body" }));
+		this.listingSnippetSize = settings.get("highlight.listing.snippet_size", "200");
+	}
+
+	/**
+	 * the page size used when the request does not set "size", -1 for the
+	 * search default.
+	 */
+	protected int defaultSize() {
+		return -1;
+	}
+
+	protected void sendBadRequest(RestRequest request, RestChannel channel, Exception e) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("failed to parse search request parameters", e);
+		}
+		try {
+			XContentBuilder builder = restContentBuilder(request);
+			channel.sendResponse(new XContentRestResponse(request, BAD_REQUEST, builder.startObject()
+					.field("error", e.getMessage()).endObject()));
+		} catch (IOException e1) {
+			logger.error("Failed to send failure response", e1);
+		}
+	}
+
+	/**
+	 * Applies the "timestamp_from" / "timestamp_to" parameters to the indices
+	 * of the search request.
+	 * 
+	 * @return false when no index can match the range
+	 */
+	protected boolean pruneIndices(RestRequest request, SearchRequest searchRequest) {
+		if (!request.hasParam("timestamp_from") && !request.hasParam("timestamp_to")) {
+			return true;
+		}
+		long from = parseTimestamp(request.param("timestamp_from"), Long.MIN_VALUE);
+		long to = parseTimestamp(request.param("timestamp_to"), Long.MAX_VALUE);
+		String[] indices = pruneIndices(searchRequest.indices(), searchRequest.ignoreIndices(), from, to);
+		if (indices.length == 0) {
+			// an empty index list would search all indices
+			return false;
+		}
+		searchRequest.indices(indices);
+		return true;
+	}
+
+	/**
+	 * collects the searchable string fields of the given indices and types.
+	 */
+	protected Set<String> resolveFields(String[] index, String[] types) {
+		HashSet<String> fields = new HashSet<String>();
+		Map<String, Boolean> validateMap = new HashMap<String, Boolean>();
+
+		ClusterStateRequestBuilder builder = client.admin().cluster().prepareState().setFilterIndices(index)
+				.setFilterNodes(true).setLocal(true).setFilterRoutingTable(true).setFilterNodes(true);
+		ClusterStateResponse response = builder.execute().actionGet();
+		MetaData metaData = response.getState().metaData();
+
+		Map<String, IndexMetaData> indexMetaMap = metaData.getIndices();
+		boolean all = types.length == 0;
+		for (String indexName : index) {
+			IndexMetaData indexMetaData = indexMetaMap.get(indexName);
+			try {
+				if (!all) {
+					for (String typeName : types) {
+						MappingMetaData mappingMetaData = indexMetaData.getMappings().get(typeName);
+						if (mappingMetaData == null) {
+							continue;
+						} else {
+							Map<String, Object> sourceMap = mappingMetaData.sourceAsMap();
+							removeUnsearchFields(sourceMap, fields, validateMap);
+						}
+					}
+				} else {
+					for (MappingMetaData mappingAllData : indexMetaData.getMappings().values()) {
+						Map<String, Object> sourceMap = mappingAllData.sourceAsMap();
+						removeUnsearchFields(sourceMap, fields, validateMap);
+					}
+				}
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * the nelo-highlight options the request parameters ask for, they are
+	 * added to the "options" of the highlight part of the source.
+	 */
+	protected Map<String, Object> highlightOptions(RestRequest request) {
+		Map<String, Object> options = new HashMap<String, Object>();
+		String combinedField = request.param("combined_field", this.combinedField);
+		if (combinedField != null) {
+			options.put("combined_field", combinedField);
+		}
+		if (request.paramAsBoolean("profile", false)) {
+			options.put("profile", true);
+		}
+		if (listing(request)) {
+			options.put("string_size", request.param("snippet_size", listingSnippetSize));
+		}
+		return options;
+	}
+
+	/**
+	 * whether the request lists hits: only their ids and short snippets of the
+	 * listing fields, the rest is highlighted per hit on demand.
+	 */
+	protected boolean listing(RestRequest request) {
+		return request.paramAsBoolean("listing", false);
+	}
+
+	/**
+	 * the fields to highlight out of the resolved fields.
+	 */
+	protected Set<String> highlightFields(RestRequest request, Set<String> fields) {
+		if (!listing(request)) {
+			return fields;
+		}
+		Set<String> highlightFields = new HashSet<String>(fields);
+		highlightFields.retainAll(listingFields);
+		return highlightFields;
+	}
+
+	/**
+	 * the filter applied to the query of the request, by default the hits
+	 * after the "cursor". null for none.
+	 */
+	protected FilterBuilder filter(RestRequest request) {
+		HighlightCursor cursor = cursor(request);
+		return cursor == null ? null : cursor.filter();
+	}
+
+	/**
+	 * the timestamp field hits are sorted by when paging with a "cursor".
+	 */
+	protected String cursorField() {
+		return cursorField;
+	}
+
+	/**
+	 * the "cursor" of the request, an empty cursor starts paging in the order
+	 * of "cursor_order" (default desc). null without a cursor.
+	 */
+	protected HighlightCursor cursor(RestRequest request) {
+		if (!request.hasParam("cursor")) {
+			return null;
+		}
+		String cursor = request.param("cursor");
+		if (!Strings.hasText(cursor)) {
+			String order = request.param("cursor_order", "desc");
+			if (!"asc".equals(order) && !"desc".equals(order)) {
+				throw new ElasticSearchIllegalArgumentException("Unsupported cursor_order [" + order
+						+ "], can either be [asc] or [desc]");
+			}
+			return new HighlightCursor(cursorField, "asc".equals(order) ? SortOrder.ASC : SortOrder.DESC, null, null);
+		}
+		return HighlightCursor.decode(cursor);
+	}
+
+	protected void rewriteSource(SearchRequest searchRequest, Set<String> fields,
+			Map<String, Object> highlightOptions) {
+		rewriteSource(searchRequest, fields, fields, highlightOptions, null);
+	}
+
+	/**
+	 * rewrites the query_string part of the search source to the resolved
+	 * fields and the highlight part to the fields to highlight, and filters
+	 * the query, e.g. to the hits after the cursor.
+	 */
+	protected void rewriteSource(SearchRequest searchRequest, Set<String> fields, Set<String> highlightFields,
+			Map<String, Object> highlightOptions, FilterBuilder filter) {
+		String combinedField = (String) highlightOptions.get("combined_field");
+		BytesReference bytes = searchRequest.source();
+		if (bytes == null) {
+			return;
+		}
+		try {
+			XContentBuilder xBuilder = XContentFactory.jsonBuilder();
+			XContentParser parser = XContentFactory.xContent(bytes).createParser(bytes);
+			XContentParser.Token token = parser.nextToken();
+
+			if (token == XContentParser.Token.START_OBJECT) {
+				String fieldName = "";
+				xBuilder.startObject();
+				int depth = 1;
+				// depth of the query object wrapped in a filtered query
+				int queryDepth = -1;
+				boolean queryFiltered = false;
+				while ((token = parser.nextToken()) != null) {
+					switch (token) {
+					case FIELD_NAME:
+						fieldName = parser.text();
+						if (filter != null && depth == 1 && fieldName.equals("query")) {
+							xBuilder.startObject("query").startObject("filtered").field("query");
+							queryDepth = depth + 1;
+							queryFiltered = true;
+						} else {
+							xBuilder.field(fieldName);
+						}
+						break;
+					case VALUE_STRING:
+						xBuilder.value(parser.text());
+						break;
+					case VALUE_NUMBER:
+						xBuilder.value(parser.longValue());
+						break;
+					case VALUE_BOOLEAN:
+						xBuilder.value(parser.booleanValue());
+						break;
+					case START_ARRAY:
+						xBuilder.startArray();
+						depth++;
+						break;
+					case VALUE_EMBEDDED_OBJECT:
+					case START_OBJECT:
+						if (token == XContentParser.Token.START_OBJECT) {
+							depth++;
+						}
+						xBuilder.startObject();
+						if (fieldName.equals("query_string")) {
+							if (combinedField != null) {
+								// match on the catch-all field only, the per field
+								// breakdown is recovered by the highlighter.
+								xBuilder.array("fields", combinedField);
+							} else {
+								xBuilder.array("fields", fields.toArray(new String[] {}));
+							}
+						} else if (fieldName.equals("highlight")) {
+							xBuilder.startObject("fields");
+							for (String hlField : highlightFields) {
+								xBuilder.startObject(hlField);
+								xBuilder.endObject();
+							}
+							xBuilder.endObject();
+							if (!highlightOptions.isEmpty()) {
+								xBuilder.startObject("options");
+								writeOptions(xBuilder, highlightOptions);
+								xBuilder.endObject();
+							}
+						} else if (fieldName.equals("options")) {
+							// user supplied highlight options replace the ones added above
+							writeOptions(xBuilder, highlightOptions);
+						}
+
+						break;
+					case END_ARRAY:
+						xBuilder.endArray();
+						depth--;
+						break;
+					case END_OBJECT:
+						if (depth == 1 && filter != null && !queryFiltered) {
+							xBuilder.startObject("query").startObject("filtered");
+							xBuilder.field("query", QueryBuilders.matchAllQuery());
+							xBuilder.field("filter");
+							filter.toXContent(xBuilder, ToXContent.EMPTY_PARAMS);
+							xBuilder.endObject().endObject();
+						}
+						xBuilder.endObject();
+						if (depth == queryDepth) {
+							xBuilder.field("filter");
+							filter.toXContent(xBuilder, ToXContent.EMPTY_PARAMS);
+							xBuilder.endObject().endObject();
+							queryDepth = -1;
+						}
+						depth--;
+						break;
+					case VALUE_NULL:
+						xBuilder.nullValue();
+						break;
+					default:
+						break;
+					}
+				}
+			}
+			logger.debug(xBuilder.string());
+			searchRequest.source(xBuilder.string().getBytes(Charset.forName("utf-8")));
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		}
+	}
+
+	private static QueryBuilder filtered(QueryBuilder query, FilterBuilder filter) {
+		return filter == null ? query : QueryBuilders.filteredQuery(query, filter);
+	}
+
+	private void writeOptions(XContentBuilder xBuilder, Map<String, Object> options) throws IOException {
+		for (Map.Entry<String, Object> option : options.entrySet()) {
+			xBuilder.field(option.getKey(), option.getValue());
+		}
+	}
+
+	/**
+	 * Drops the requested indices, aliases and patterns whose indices all have
+	 * a time range which can not overlap [from, to]. The others are kept as
+	 * requested, so aliases keep their filter and routing. The range of an
+	 * index is read from its "index.highlight.timestamp.min/max" settings, or
+	 * derived from the date in its name when "highlight.index.date_format" is
+	 * configured. Indices without any range information are kept.
+	 */
+	protected String[] pruneIndices(String[] indices, IgnoreIndices ignoreIndices, long from, long to) {
+		MetaData metaData = clusterService.state().metaData();
+		if (indices == null || indices.length == 0 || (indices.length == 1 && "_all".equals(indices[0]))) {
+			// no alias to keep, prune the indices themselves
+			indices = metaData.concreteAllOpenIndices();
+		}
+		List<String> pruned = new ArrayList<String>(indices.length);
+		boolean included = false;
+		for (String name : indices) {
+			if (name.startsWith("-")) {
+				// an exclusion of a pattern
+				pruned.add(name);
+				continue;
+			}
+			String[] concreteIndices;
+			try {
+				concreteIndices = metaData.concreteIndices(new String[] { name }, ignoreIndices, true);
+			} catch (IndexMissingException e) {
+				// the search reports the missing index
+				concreteIndices = Strings.EMPTY_ARRAY;
+			}
+			boolean outOfRange = concreteIndices.length > 0;
+			for (String indexName : concreteIndices) {
+				if (!outOfRange(metaData, indexName, from, to)) {
+					outOfRange = false;
+					break;
+				}
+			}
+			if (outOfRange) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("index [{}] pruned, out of timestamp range [{}, {}]", name, from, to);
+				}
+				continue;
+			}
+			pruned.add(name);
+			included = true;
+		}
+		if (!included) {
+			// the exclusions alone would search all indices
+			return Strings.EMPTY_ARRAY;
+		}
+		return pruned.toArray(new String[pruned.size()]);
+	}
+
+	private boolean outOfRange(MetaData metaData, String indexName, long from, long to) {
+		IndexMetaData indexMetaData = metaData.index(indexName);
+		Long min = indexMetaData == null ? null : indexMetaData.settings().getAsLong("index.highlight.timestamp.min",
+				null);
+		Long max = indexMetaData == null ? null : indexMetaData.settings().getAsLong("index.highlight.timestamp.max",
+				null);
+		if (min == null && max == null && indexDateFormatter != null) {
+			min = parseIndexDate(indexName);
+			if (min != null) {
+				max = min + indexDateInterval.millis() - 1;
+			}
+		}
+		return (min != null && min > to) || (max != null && max < from);
+	}
+
+	private Long parseIndexDate(String indexName) {
+		int length = indexDateFormatter.format().length();
+		if (indexName.length() < length) {
+			return null;
+		}
+		try {
+			return indexDateFormatter.parser().parseMillis(indexName.substring(indexName.length() - length));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	protected long parseTimestamp(String value, long defaultValue) {
+		if (!Strings.hasText(value)) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			try {
+				return timestampFormatter.parser().parseMillis(value);
+			} catch (IllegalArgumentException e1) {
+				throw new ElasticSearchIllegalArgumentException("failed to parse timestamp [" + value + "]");
+			}
+		}
+	}
+
+	public void append(StringBuilder sb, String text, int offset) {
+		char cc = text.charAt(offset);
+		if (cc == '<')
+			sb.append("&lt;");
+		else if (cc == '>')
+			sb.append("&gt;");
+		else
+			sb.append(text.charAt(offset));
+	}
+
+	private void removeUnsearchFields(Map<String, Object> sourceMap, Set<String> fields,
+			Map<String, Boolean> validateMap) {
+		if (sourceMap.get("properties") != null) {
+			Map<String, Object> propMap = (Map<String, Object>) sourceMap.get("properties");
+			Set<String> keys = propMap.keySet();
+
+			for (String key : keys) {
+				if (key.length() > MAX_FIELD_LENGTH) {
+					continue;
+				}
+
+				if (!validate(key, validateMap)) {
+					continue;
+				}
+				Map<String, Object> fieldProp = (Map<String, Object>) propMap.get(key);
+				Object type = fieldProp.get("type");
+				if (type != null && type.equals("string")) {
+					fields.add(key);
+				}
+			}
+		}
+	}
+
+	protected static boolean validate(String key, Map<String, Boolean> validateMap) {
+		Boolean ret = validateMap.get(key);
+		if (ret != null)
+			return ret;
+
+		char[] chars = key.toCharArray();
+		for (char c : chars) {
+			if (Character.isLetterOrDigit(c) || c == '_' || c == '-') {
+				continue;
+			} else {
+				validateMap.put(key, false);
+				return false;
+			}
+
+		}
+		validateMap.put(key, true);
+		return true;
+	}
+
+	protected SearchRequest parseSearchRequest(RestRequest request) {
+		String[] indices = RestActions.splitIndices(request.param("index"));
+		SearchRequest searchRequest = new SearchRequest(indices);
+		// get the content, and put it in the body
+		if (request.hasContent()) {
+			searchRequest.source(request.content(), request.contentUnsafe());
+		} else {
+			String source = request.param("source");
+			if (source != null) {
+				searchRequest.source(source);
+			}
+		}
+		// add extra source based on the request parameters
+		searchRequest.extraSource(parseSearchSource(request));
+
+		searchRequest.searchType(request.param("search_type"));
+
+		String scroll = request.param("scroll");
+		if (scroll != null) {
+			searchRequest.scroll(new Scroll(parseTimeValue(scroll, null)));
+		}
+
+		searchRequest.types(RestActions.splitTypes(request.param("type")));
+		searchRequest.routing(request.param("routing"));
+		searchRequest.preference(request.param("preference"));
+		if (request.hasParam("ignore_indices")) {
+			searchRequest.ignoreIndices(IgnoreIndices.fromString(request.param("ignore_indices")));
+		}
+
+		searchRequest.listenerThreaded(false);
+		SearchOperationThreading operationThreading = SearchOperationThreading.fromString(
+				request.param("operation_threading"), null);
+		if (operationThreading != null) {
+			if (operationThreading == SearchOperationThreading.NO_THREADS) {
+				operationThreading = SearchOperationThreading.SINGLE_THREAD;
+			}
+			searchRequest.operationThreading(operationThreading);
+		}
+		return searchRequest;
+	}
+
+	protected SearchSourceBuilder parseSearchSource(RestRequest request) {
+		SearchSourceBuilder searchSourceBuilder = null;
+		HighlightCursor cursor = cursor(request);
+		FilterBuilder filter = filter(request);
+		String queryString = request.param("q");
+		if (queryString != null) {
+			QueryStringQueryBuilder queryBuilder = QueryBuilders.queryString(queryString);
+			queryBuilder.defaultField(request.param("df"));
+			queryBuilder.analyzer(request.param("analyzer"));
+			queryBuilder.analyzeWildcard(request.paramAsBoolean("analyze_wildcard", false));
+			queryBuilder.lowercaseExpandedTerms(request.paramAsBoolean("lowercase_expanded_terms", true));
+			queryBuilder.lenient(request.paramAsBooleanOptional("lenient", null));
+			String defaultOperator = request.param("default_operator");
+			if (defaultOperator != null) {
+				if ("OR".equals(defaultOperator)) {
+					queryBuilder.defaultOperator(QueryStringQueryBuilder.Operator.OR);
+				} else if ("AND".equals(defaultOperator)) {
+					queryBuilder.defaultOperator(QueryStringQueryBuilder.Operator.AND);
+				} else {
+					throw new ElasticSearchIllegalArgumentException("Unsupported defaultOperator [" + defaultOperator
+							+ "], can either be [OR] or [AND]");
+				}
+			}
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			searchSourceBuilder.query(filtered(queryBuilder, filter));
+		} else if (filter != null && !request.hasContent() && request.param("source") == null) {
+			// the query of a request body is filtered by rewriteSource
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			searchSourceBuilder.query(filtered(QueryBuilders.matchAllQuery(), filter));
+		}
+
+		// the cursor replaces "from"
+		int from = cursor == null ? request.paramAsInt("from", -1) : 0;
+		if (from != -1) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			searchSourceBuilder.from(from);
+		}
+		int size = request.paramAsInt("size", defaultSize());
+		if (size != -1) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			searchSourceBuilder.size(size);
+		}
+
+		if (request.hasParam("explain")) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			searchSourceBuilder.explain(request.paramAsBooleanOptional("explain", null));
+		}
+		if (request.hasParam("version")) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			searchSourceBuilder.version(request.paramAsBooleanOptional("version", null));
+		}
+		if (request.hasParam("timeout")) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			searchSourceBuilder.timeout(request.paramAsTime("timeout", null));
+		}
+
+		String sField = request.param("fields");
+		if (sField != null) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			if (!Strings.hasText(sField)) {
+				searchSourceBuilder.noFields();
+			} else {
+				String[] sFields = Strings.splitStringByCommaToArray(sField);
+				if (sFields != null) {
+					for (String field : sFields) {
+						searchSourceBuilder.field(field);
+					}
+				}
+			}
+		}
+
+		// a listing returns the ids and the snippets only
+		boolean listing = listing(request);
+		if (listing && sField == null) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			searchSourceBuilder.noFields();
+		}
+
+		// with "highlight.source.truncate" the shards return the source cut at
+		// the limit as the "partial" field, unless the request asks for fields
+		String limit = request.param("limit");
+		if (limit != null && truncateSource && sField == null && !listing) {
+			if (limit.endsWith("b") || limit.endsWith("B")) {
+				ByteSizeValue.parseBytesSizeValue(limit);
+			} else {
+				SizeValue.parseSizeValue(limit);
+			}
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			Map<String, Object> params = new HashMap<String, Object>(2);
+			params.put("limit", limit);
+			params.put("fields", limitedFields);
+			searchSourceBuilder.noFields();
+			searchSourceBuilder.scriptField("partial", "native", TruncatedSourceScript.NAME, params);
+		}
+
+		if (cursor != null) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			searchSourceBuilder.sort(cursor.field(), cursor.order());
+			searchSourceBuilder.sort(UidFieldMapper.NAME, cursor.order());
+		}
+
+		String sSorts = cursor == null ? request.param("sort") : null;
+		if (sSorts != null) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			String[] sorts = Strings.splitStringByCommaToArray(sSorts);
+			for (String sort : sorts) {
+				int delimiter = sort.lastIndexOf(":");
+				if (delimiter != -1) {
+					String sortField = sort.substring(0, delimiter);
+					String reverse = sort.substring(delimiter + 1);
+					if ("asc".equals(reverse)) {
+						searchSourceBuilder.sort(sortField, SortOrder.ASC);
+					} else if ("desc".equals(reverse)) {
+						searchSourceBuilder.sort(sortField, SortOrder.DESC);
+					}
+				} else {
+					searchSourceBuilder.sort(sort);
+				}
+			}
+		}
+
+		String sIndicesBoost = request.param("indices_boost");
+		if (sIndicesBoost != null) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			String[] indicesBoost = Strings.splitStringByCommaToArray(sIndicesBoost);
+			for (String indexBoost : indicesBoost) {
+				int divisor = indexBoost.indexOf(',');
+				if (divisor == -1) {
+					throw new ElasticSearchIllegalArgumentException("Illegal index boost [" + indexBoost + "], no ','");
+				}
+				String indexName = indexBoost.substring(0, divisor);
+				String sBoost = indexBoost.substring(divisor + 1);
+				try {
+					searchSourceBuilder.indexBoost(indexName, Float.parseFloat(sBoost));
+				} catch (NumberFormatException e) {
+					throw new ElasticSearchIllegalArgumentException("Illegal index boost [" + indexBoost
+							+ "], boost not a float number");
+				}
+			}
+		}
+
+		String sStats = request.param("stats");
+		if (sStats != null) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			searchSourceBuilder.stats(Strings.splitStringByCommaToArray(sStats));
+		}
+
+		String suggestField = request.param("suggest_field");
+		if (suggestField != null) {
+			String suggestText = request.param("suggest_text", queryString);
+			int suggestSize = request.paramAsInt("suggest_size", 5);
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			String suggestMode = request.param("suggest_mode");
+			searchSourceBuilder.suggest().addSuggestion(
+					termSuggestion(suggestField).field(suggestField).text(suggestText).size(suggestSize)
+							.suggestMode(suggestMode));
+		}
+
+		return searchSourceBuilder;
+	}
+
+}
@@ -0,0 +1,114 @@
+package org.elasticsearch.index.analysis.rest;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.RangeFilterBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+
+/**
+ * The position of a page of hits sorted by a timestamp field and "_uid". The
+ * next page is the hits after the last hit of the page, selected by a range
+ * filter instead of "from", so every page costs the shards the same.
+ * <p>
+ * The cursor is passed as an url safe base64 string of its json.
+ */
+class HighlightCursor {
+
+	private final String field;
+
+	private final SortOrder order;
+
+	// the sort values of the last hit, null for the first page
+	private final Object value;
+
+	private final String uid;
+
+	HighlightCursor(String field, SortOrder order, Object value, String uid) {
+		this.field = field;
+		this.order = order;
+		this.value = value;
+		this.uid = uid;
+	}
+
+	String field() {
+		return field;
+	}
+
+	SortOrder order() {
+		return order;
+	}
+
+	/**
+	 * the hits after this cursor, null for the first page.
+	 */
+	FilterBuilder filter() {
+		if (value == null) {
+			return null;
+		}
+		// every page has other bounds, caching them only churns the filter cache
+		RangeFilterBuilder before = FilterBuilders.rangeFilter(field).cache(false);
+		RangeFilterBuilder uidBefore = FilterBuilders.rangeFilter(UidFieldMapper.NAME).cache(false);
+		if (order == SortOrder.DESC) {
+			before.lt(value);
+			uidBefore.lt(uid);
+		} else {
+			before.gt(value);
+			uidBefore.gt(uid);
+		}
+		return FilterBuilders.boolFilter().should(before).should(
+				FilterBuilders.boolFilter().must(FilterBuilders.rangeFilter(field).gte(value).lte(value).cache(false))
+						.must(uidBefore).cache(false)).cache(false);
+	}
+
+	/**
+	 * the cursor of the page after the given hit, which must be sorted by this
+	 * cursor.
+	 */
+	HighlightCursor after(SearchHit hit) {
+		Object[] sortValues = hit.sortValues();
+		if (sortValues == null || sortValues.length == 0) {
+			return null;
+		}
+		return new HighlightCursor(field, order, sortValues[0], Uid.createUid(hit.type(), hit.id()));
+	}
+
+	String encode() throws IOException {
+		XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+		builder.field("field", field);
+		builder.field("order", order.toString());
+		builder.field("value", value);
+		builder.field("uid", uid);
+		builder.endObject();
+		return Base64.encodeBytes(builder.bytes().toBytes(), Base64.URL_SAFE);
+	}
+
+	static HighlightCursor decode(String cursor) {
+		Map<String, Object> map;
+		try {
+			byte[] bytes = Base64.decode(cursor, Base64.URL_SAFE);
+			map = XContentHelper.convertToMap(bytes, 0, bytes.length, false).v2();
+		} catch (Exception e) {
+			throw new ElasticSearchIllegalArgumentException("Illegal cursor [" + cursor + "]", e);
+		}
+		Object field = map.get("field");
+		Object order = map.get("order");
+		Object value = map.get("value");
+		Object uid = map.get("uid");
+		if (field == null || order == null || value == null || uid == null) {
+			throw new ElasticSearchIllegalArgumentException("Illegal cursor [" + cursor + "]");
+		}
+		return new HighlightCursor(field.toString(), "asc".equals(order) ? SortOrder.ASC : SortOrder.DESC, value,
+				uid.toString());
+	}
+}
@@ -0,0 +1,84 @@
+package org.elasticsearch.index.analysis.rest;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.netty.channel.Channel;
+import org.elasticsearch.common.netty.channel.ChannelFuture;
+import org.elasticsearch.common.netty.channel.ChannelFutureListener;
+import org.elasticsearch.http.netty.NettyHttpChannel;
+import org.elasticsearch.rest.RestChannel;
+
+/**
+ * Runs a callback, e.g. the cancellation of a highlight request, when the
+ * client closes its http connection before the response is sent. The rest
+ * channel does not expose the connection, it is read from the netty http
+ * channel.
+ */
+final class HighlightDisconnectWatch implements ChannelFutureListener {
+
+	private static final ESLogger logger = Loggers.getLogger(HighlightDisconnectWatch.class);
+
+	private static final Field CHANNEL_FIELD;
+
+	static {
+		Field field = null;
+		try {
+			field = NettyHttpChannel.class.getDeclaredField("channel");
+			field.setAccessible(true);
+		} catch (Exception e) {
+			logger.warn("can not read the connection of http channels, highlight requests are not cancelled", e);
+		}
+		CHANNEL_FIELD = field;
+	}
+
+	private final ChannelFuture closeFuture;
+
+	private final Runnable onDisconnect;
+
+	private final AtomicBoolean done = new AtomicBoolean();
+
+	private HighlightDisconnectWatch(ChannelFuture closeFuture, Runnable onDisconnect) {
+		this.closeFuture = closeFuture;
+		this.onDisconnect = onDisconnect;
+	}
+
+	/**
+	 * watches the connection of the channel, null when it can not be watched.
+	 */
+	static HighlightDisconnectWatch watch(RestChannel restChannel, Runnable onDisconnect) {
+		if (CHANNEL_FIELD == null || !(restChannel instanceof NettyHttpChannel)) {
+			return null;
+		}
+		Channel channel;
+		try {
+			channel = (Channel) CHANNEL_FIELD.get(restChannel);
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+		HighlightDisconnectWatch watch = new HighlightDisconnectWatch(channel.getCloseFuture(), onDisconnect);
+		// an already closed connection calls the listener right away
+		channel.getCloseFuture().addListener(watch);
+		return watch;
+	}
+
+	@Override
+	public void operationComplete(ChannelFuture future) throws Exception {
+		if (done.compareAndSet(false, true)) {
+			onDisconnect.run();
+		}
+	}
+
+	/**
+	 * the response is being sent, a connection closed from now on does not
+	 * cancel the request. Keep alive connections serve many requests, so the
+	 * listener is removed.
+	 */
+	void done() {
+		if (done.compareAndSet(false, true)) {
+			closeFuture.removeListener(this);
+		}
+	}
+}
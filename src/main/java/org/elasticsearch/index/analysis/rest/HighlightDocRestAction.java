@@ -0,0 +1,127 @@
+package org.elasticsearch.index.analysis.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.NOT_FOUND;
+import static org.elasticsearch.rest.RestStatus.OK;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+/**
+ * "/{index}/{type}/{id}/_highlight" takes the request of a "_highlight"
+ * listing and highlights every field of the one document, when a listed hit
+ * is expanded. The query is run filtered to the id, so the document is
+ * highlighted by nelo-highlight on its shard like any hit. The response is the
+ * hit, 404 when the query does not match the document.
+ */
+public class HighlightDocRestAction extends AbstractHighlightRestAction {
+
+	@Inject
+	public HighlightDocRestAction(Settings settings, Client client, RestController controller,
+			ClusterService clusterService) {
+		super(settings, client, clusterService);
+		controller.registerHandler(GET, "/{index}/{type}/{id}/_highlight", this);
+		controller.registerHandler(POST, "/{index}/{type}/{id}/_highlight", this);
+	}
+
+	@Override
+	public void handleRequest(final RestRequest request, final RestChannel channel) {
+		SearchRequest searchRequest;
+		try {
+			searchRequest = parseSearchRequest(request);
+		} catch (Exception e) {
+			sendBadRequest(request, channel, e);
+			return;
+		}
+
+		ActionListener<SearchResponse> listener = new ActionListener<SearchResponse>() {
+			@Override
+			public void onResponse(SearchResponse response) {
+				try {
+					XContentBuilder builder = restContentBuilder(request);
+					SearchHit[] hits = response.getHits().getHits();
+					if (hits.length == 0) {
+						builder.startObject();
+						builder.field("_index", request.param("index"));
+						builder.field("_type", request.param("type"));
+						builder.field("_id", request.param("id"));
+						builder.field("found", false);
+						builder.endObject();
+						channel.sendResponse(new XContentRestResponse(request, NOT_FOUND, builder));
+						return;
+					}
+					hits[0].toXContent(builder, request);
+					channel.sendResponse(new XContentRestResponse(request, OK, builder));
+				} catch (Exception e) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("failed to execute document highlight (building response)", e);
+					}
+					onFailure(e);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				try {
+					channel.sendResponse(new XContentThrowableRestResponse(request, e));
+				} catch (IOException e1) {
+					logger.error("Failed to send failure response", e1);
+				}
+			}
+		};
+
+		try {
+			Set<String> fields = resolveFields(searchRequest.indices(), searchRequest.types());
+			rewriteSource(searchRequest, fields, fields, highlightOptions(request), filter(request));
+		} catch (Exception e) {
+			listener.onFailure(e);
+			return;
+		}
+
+		client.search(searchRequest, listener);
+	}
+
+	/**
+	 * the whole document is highlighted, whatever the listing asked for.
+	 */
+	@Override
+	protected boolean listing(RestRequest request) {
+		return false;
+	}
+
+	@Override
+	protected FilterBuilder filter(RestRequest request) {
+		return FilterBuilders.idsFilter(request.param("type")).addIds(request.param("id"));
+	}
+
+	@Override
+	protected SearchSourceBuilder parseSearchSource(RestRequest request) {
+		SearchSourceBuilder searchSourceBuilder = super.parseSearchSource(request);
+		if (searchSourceBuilder == null) {
+			searchSourceBuilder = new SearchSourceBuilder();
+		}
+		// the paging of the listing does not apply to its document
+		searchSourceBuilder.from(0).size(1);
+		return searchSourceBuilder;
+	}
+}
@@ -0,0 +1,232 @@
+package org.elasticsearch.index.analysis.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+import org.elasticsearch.search.Scroll;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.highlight.HighlightField;
+
+/**
+ * Exports highlighted hits as NDJSON, one scroll page per call.
+ * <p>
+ * The first call resolves the fields and rewrites the request once and opens
+ * a scroll, the following calls only pass the "scroll_id" of the first line
+ * of the previous page. An empty page marks the end of the export. The client
+ * pulls the pages, so a slow reader never makes the node buffer more than one
+ * page.
+ */
+public class HighlightExportRestAction extends AbstractHighlightRestAction {
+
+	private static final String CONTENT_TYPE = "application/x-ndjson; charset=UTF-8";
+
+	private final TimeValue keepAlive;
+
+	private final int pageSize;
+
+	private final int maxPageSize;
+
+	@Inject
+	public HighlightExportRestAction(Settings settings, Client client, RestController controller,
+			ClusterService clusterService) {
+		super(settings, client, clusterService);
+		this.keepAlive = settings.getAsTime("highlight.export.scroll", TimeValue.timeValueMinutes(1));
+		this.pageSize = settings.getAsInt("highlight.export.size", 100);
+		this.maxPageSize = settings.getAsInt("highlight.export.max_size", 1000);
+		controller.registerHandler(GET, "/_highlight/_export", this);
+		controller.registerHandler(POST, "/_highlight/_export", this);
+		controller.registerHandler(GET, "/{index}/_highlight/_export", this);
+		controller.registerHandler(POST, "/{index}/_highlight/_export", this);
+		controller.registerHandler(GET, "/{index}/{type}/_highlight/_export", this);
+		controller.registerHandler(POST, "/{index}/{type}/_highlight/_export", this);
+	}
+
+	@Override
+	protected int defaultSize() {
+		return pageSize;
+	}
+
+	/**
+	 * the page size is the "size" param, else the "size" of the body, and
+	 * always set by the extra source, which overrides the body.
+	 */
+	@Override
+	protected SearchSourceBuilder parseSearchSource(RestRequest request) {
+		SearchSourceBuilder searchSourceBuilder = super.parseSearchSource(request);
+		int size = request.hasParam("size") ? request.paramAsInt("size", pageSize) : sourceSize(request);
+		if (size > maxPageSize) {
+			throw new ElasticSearchIllegalArgumentException("export page size can not be larger than ["
+					+ maxPageSize + "]");
+		}
+		if (size != -1) {
+			if (searchSourceBuilder == null) {
+				searchSourceBuilder = new SearchSourceBuilder();
+			}
+			searchSourceBuilder.size(size);
+		}
+		return searchSourceBuilder;
+	}
+
+	// the top level "size" of the body, the page size when it has none
+	private int sourceSize(RestRequest request) {
+		BytesReference source = request.hasContent() ? request.content() : null;
+		if (source == null && request.param("source") != null) {
+			source = new BytesArray(request.param("source"));
+		}
+		if (source == null || source.length() == 0) {
+			return pageSize;
+		}
+		XContentParser parser = null;
+		try {
+			parser = XContentFactory.xContent(source).createParser(source);
+			if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+				return pageSize;
+			}
+			XContentParser.Token token;
+			while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+				String name = parser.currentName();
+				token = parser.nextToken();
+				if ("size".equals(name) && token.isValue()) {
+					return parser.intValue();
+				}
+				parser.skipChildren();
+			}
+			return pageSize;
+		} catch (IOException e) {
+			throw new ElasticSearchIllegalArgumentException("failed to parse the export source", e);
+		} finally {
+			if (parser != null) {
+				parser.close();
+			}
+		}
+	}
+
+	@Override
+	public void handleRequest(final RestRequest request, final RestChannel channel) {
+		ActionListener<SearchResponse> listener = new ActionListener<SearchResponse>() {
+			@Override
+			public void onResponse(SearchResponse response) {
+				try {
+					channel.sendResponse(new BytesRestResponse(toNdjson(response), CONTENT_TYPE));
+				} catch (Exception e) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("failed to execute export (building response)", e);
+					}
+					onFailure(e);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				try {
+					channel.sendResponse(new XContentThrowableRestResponse(request, e));
+				} catch (IOException e1) {
+					logger.error("Failed to send failure response", e1);
+				}
+			}
+		};
+
+		String scrollId = request.param("scroll_id");
+		if (scrollId != null) {
+			client.prepareSearchScroll(scrollId).setScroll(request.paramAsTime("scroll", keepAlive))
+					.execute(listener);
+			return;
+		}
+
+		SearchRequest searchRequest;
+		try {
+			searchRequest = parseSearchRequest(request);
+			if (searchRequest.scroll() == null) {
+				searchRequest.scroll(new Scroll(keepAlive));
+			}
+		} catch (Exception e) {
+			sendBadRequest(request, channel, e);
+			return;
+		}
+
+		try {
+			if (!pruneIndices(request, searchRequest)) {
+				channel.sendResponse(new BytesRestResponse(new byte[0], CONTENT_TYPE));
+				return;
+			}
+		} catch (Exception e) {
+			listener.onFailure(e);
+			return;
+		}
+
+		try {
+			Set<String> fields = resolveFields(searchRequest.indices(), searchRequest.types());
+			rewriteSource(searchRequest, fields, highlightOptions(request));
+		} catch (Exception e) {
+			listener.onFailure(e);
+			return;
+		}
+
+		client.search(searchRequest, listener);
+	}
+
+	/**
+	 * the first line carries the scroll id and totals, each following line one
+	 * hit with its highlighted fields.
+	 */
+	private byte[] toNdjson(SearchResponse response) throws IOException {
+		BytesStreamOutput out = new BytesStreamOutput();
+		XContentBuilder builder = XContentFactory.jsonBuilder(out);
+		builder.startObject();
+		builder.field("_scroll_id", response.getScrollId());
+		builder.field("took", response.getTookInMillis());
+		builder.field("total", response.getHits().getTotalHits());
+		builder.field("count", response.getHits().getHits().length);
+		builder.endObject();
+		builder.flush();
+		out.writeByte((byte) '\n');
+
+		for (SearchHit hit : response.getHits()) {
+			builder = XContentFactory.jsonBuilder(out);
+			builder.startObject();
+			builder.field("_index", hit.getIndex());
+			builder.field("_type", hit.getType());
+			builder.field("_id", hit.getId());
+			builder.startObject("highlight");
+			for (HighlightField field : hit.getHighlightFields().values()) {
+				builder.startArray(field.getName());
+				if (field.getFragments() != null) {
+					for (Text fragment : field.getFragments()) {
+						builder.value(fragment);
+					}
+				}
+				builder.endArray();
+			}
+			builder.endObject();
+			builder.endObject();
+			builder.flush();
+			out.writeByte((byte) '\n');
+		}
+		return out.bytes().toBytes();
+	}
+}
@@ -0,0 +1,186 @@
+package org.elasticsearch.index.analysis.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.stats.IndexStats;
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheStats;
+import org.elasticsearch.common.cache.Weigher;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.rest.RestRequest;
+
+/**
+ * Coordinator side cache of serialized "_highlight" responses.
+ * <p>
+ * Entries are keyed by the normalized request body, the url parameters and
+ * the refresh count of every searched index, so a refresh (or a mapping
+ * change) of any of them makes the old entries unreachable, they expire or
+ * are evicted.
+ */
+public class HighlightResponseCache extends AbstractComponent {
+
+	private final boolean enabled;
+
+	private final ByteSizeValue size;
+
+	private final TimeValue expire;
+
+	private final Cache<String, Entry> cache;
+
+	private final ClusterService clusterService;
+
+	@Inject
+	public HighlightResponseCache(Settings settings, ClusterService clusterService) {
+		super(settings);
+		this.clusterService = clusterService;
+		this.enabled = settings.getAsBoolean("highlight.cache.enabled", false);
+		this.size = settings.getAsBytesSize("highlight.cache.size", new ByteSizeValue(50, ByteSizeUnit.MB));
+		this.expire = settings.getAsTime("highlight.cache.expire", TimeValue.timeValueMinutes(5));
+
+		this.cache = CacheBuilder.newBuilder().maximumWeight(size.bytes()).weigher(new Weigher<String, Entry>() {
+			@Override
+			public int weigh(String key, Entry entry) {
+				return key.length() * 2 + entry.content.length;
+			}
+		}).expireAfterWrite(expire.millis(), TimeUnit.MILLISECONDS).recordStats().build();
+	}
+
+	public boolean enabled() {
+		return enabled;
+	}
+
+	/**
+	 * builds the cache key of the request, once the refresh stats of the
+	 * given (already resolved) indices are fetched.
+	 */
+	public void key(Client client, RestRequest request, String[] indices, final ActionListener<String> listener) {
+		final String requestKey;
+		try {
+			requestKey = requestKey(request);
+		} catch (Exception e) {
+			listener.onFailure(e);
+			return;
+		}
+		client.admin().indices().prepareStats(indices).clear().setRefresh(true)
+				.execute(new ActionListener<IndicesStatsResponse>() {
+					@Override
+					public void onResponse(IndicesStatsResponse stats) {
+						StringBuilder sb = new StringBuilder(requestKey);
+						for (IndexStats indexStats : new TreeMap<String, IndexStats>(stats.getIndices()).values()) {
+							sb.append(',').append(indexStats.getIndex()).append(':')
+									.append(indexStats.getTotal().getRefresh().getTotal());
+						}
+						listener.onResponse(sb.toString());
+					}
+
+					@Override
+					public void onFailure(Throwable e) {
+						listener.onFailure(e);
+					}
+				});
+	}
+
+	/**
+	 * the key of the request without the refresh stats of its indices: the
+	 * path, the url parameters, the normalized body and the version of the
+	 * cluster metadata.
+	 */
+	@SuppressWarnings("unchecked")
+	public String requestKey(RestRequest request) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append(request.path()).append('?');
+		for (Map.Entry<String, String> param : new TreeMap<String, String>(request.params()).entrySet()) {
+			sb.append(param.getKey()).append('=').append(param.getValue()).append('&');
+		}
+		sb.append('\n');
+		if (request.hasContent()) {
+			Map<String, Object> source = XContentHelper.convertToMap(request.content(), false).v2();
+			sb.append(XContentFactory.jsonBuilder().map((Map<String, Object>) sort(source)).string());
+		}
+		sb.append('\n').append(clusterService.state().metaData().version());
+		return sb.toString();
+	}
+
+	public Entry get(String key) {
+		return cache.getIfPresent(key);
+	}
+
+	public void put(String key, byte[] content, String contentType) {
+		cache.put(key, new Entry(content, contentType));
+	}
+
+	public void clear() {
+		cache.invalidateAll();
+	}
+
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	public long count() {
+		return cache.size();
+	}
+
+	public ByteSizeValue size() {
+		return size;
+	}
+
+	public TimeValue expire() {
+		return expire;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object sort(Object value) {
+		if (value instanceof Map) {
+			TreeMap<String, Object> sorted = new TreeMap<String, Object>();
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+				sorted.put(entry.getKey(), sort(entry.getValue()));
+			}
+			return sorted;
+		} else if (value instanceof List) {
+			List<Object> list = new ArrayList<Object>();
+			for (Object item : (List<Object>) value) {
+				list.add(sort(item));
+			}
+			return list;
+		}
+		return value;
+	}
+
+	public static class Entry {
+
+		private final byte[] content;
+
+		private final String contentType;
+
+		Entry(byte[] content, String contentType) {
+			this.content = content;
+			this.contentType = contentType;
+		}
+
+		public byte[] content() {
+			return content;
+		}
+
+		public String contentType() {
+			return contentType;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package org.elasticsearch.index.analysis.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+
+/**
+ * Folds identical "_highlight" requests which arrive while one of them is
+ * executed into that execution, the waiting channels get the serialized
+ * response of the executing request. Requests are identical when their
+ * {@link HighlightResponseCache} key is.
+ * <p>
+ * An execution is only cancelled once the clients of all its channels are
+ * gone. "highlight.coalesce.enabled" (default true) turns it off.
+ */
+public class HighlightSingleFlight extends AbstractComponent {
+
+	private final boolean enabled;
+
+	private final ConcurrentMap<String, Flight> flights = ConcurrentCollections.newConcurrentMap();
+
+	private final AtomicLong executedCount = new AtomicLong();
+
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	@Inject
+	public HighlightSingleFlight(Settings settings) {
+		super(settings);
+		this.enabled = settings.getAsBoolean("highlight.coalesce.enabled", true);
+	}
+
+	public boolean enabled() {
+		return enabled;
+	}
+
+	/**
+	 * joins the execution of an identical request.
+	 *
+	 * @param cancel
+	 *            cancels the execution once all clients are gone
+	 * @return the new flight the caller executes, null when the request
+	 *         joined a running execution which will answer its channel.
+	 */
+	Flight join(String key, RestRequest request, RestChannel channel, Runnable cancel) {
+		while (true) {
+			Flight flight = new Flight(key, cancel);
+			Flight existing = flights.putIfAbsent(key, flight);
+			if (existing == null) {
+				executedCount.incrementAndGet();
+				flight.watch(channel);
+				return flight;
+			}
+			if (existing.add(request, channel)) {
+				coalescedCount.incrementAndGet();
+				return null;
+			}
+			// the execution just finished, start a new one
+			flights.remove(key, existing);
+		}
+	}
+
+	public long executedCount() {
+		return executedCount.get();
+	}
+
+	public long coalescedCount() {
+		return coalescedCount.get();
+	}
+
+	public int inFlightCount() {
+		return flights.size();
+	}
+
+	/**
+	 * one execution and the channels waiting for its response.
+	 */
+	class Flight {
+
+		private final String key;
+
+		private final Runnable cancel;
+
+		private final List<RestRequest> requests = new ArrayList<RestRequest>(2);
+
+		private final List<RestChannel> channels = new ArrayList<RestChannel>(2);
+
+		private final List<HighlightDisconnectWatch> watches = new ArrayList<HighlightDisconnectWatch>(2);
+
+		// channels whose client may still wait, unwatched channels always count
+		private int connected;
+
+		private boolean done;
+
+		Flight(String key, Runnable cancel) {
+			this.key = key;
+			this.cancel = cancel;
+		}
+
+		private synchronized boolean add(RestRequest request, RestChannel channel) {
+			if (done) {
+				return false;
+			}
+			requests.add(request);
+			channels.add(channel);
+			watch(channel);
+			return true;
+		}
+
+		private synchronized void watch(RestChannel channel) {
+			connected++;
+			HighlightDisconnectWatch watch = HighlightDisconnectWatch.watch(channel, new Runnable() {
+				@Override
+				public void run() {
+					disconnected();
+				}
+			});
+			if (watch != null) {
+				watches.add(watch);
+			}
+		}
+
+		private void disconnected() {
+			boolean cancelled;
+			synchronized (this) {
+				cancelled = --connected == 0 && !done;
+			}
+			if (cancelled) {
+				cancel.run();
+			}
+		}
+
+		/**
+		 * sends the response of the execution to the waiting channels.
+		 */
+		void complete(final byte[] content, String contentType, final RestStatus status) {
+			finish();
+			for (RestChannel channel : channels) {
+				channel.sendResponse(new BytesRestResponse(content, contentType) {
+					@Override
+					public RestStatus status() {
+						return status;
+					}
+				});
+			}
+		}
+
+		void fail(Throwable e) {
+			finish();
+			for (int i = 0; i < channels.size(); i++) {
+				try {
+					channels.get(i).sendResponse(new XContentThrowableRestResponse(requests.get(i), e));
+				} catch (IOException e1) {
+					logger.error("Failed to send failure response", e1);
+				}
+			}
+		}
+
+		// no channel joins from now on
+		private void finish() {
+			synchronized (this) {
+				if (done) {
+					channels.clear();
+					return;
+				}
+				done = true;
+				for (HighlightDisconnectWatch watch : watches) {
+					watch.done();
+				}
+			}
+			flights.remove(key, this);
+		}
+	}
+}
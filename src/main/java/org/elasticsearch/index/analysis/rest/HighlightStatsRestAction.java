@@ -0,0 +1,161 @@
+package org.elasticsearch.index.analysis.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestStatus.OK;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.cache.CacheStats;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.analysis.action.HighlightCancellationService;
+import org.elasticsearch.index.analysis.action.HighlightShadowService;
+import org.elasticsearch.index.analysis.action.HighlightStrategyService;
+import org.elasticsearch.index.analysis.action.HighlightStrategyService.FieldStats;
+import org.elasticsearch.index.analysis.action.HighlightStrategyService.Strategy;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+
+/**
+ * "_highlight/_stats" reports the highlight statistics of the node which
+ * receives the request.
+ */
+public class HighlightStatsRestAction extends BaseRestHandler {
+
+	private final HighlightResponseCache responseCache;
+
+	private final HighlightSingleFlight singleFlight;
+
+	private final HighlightTenantScheduler scheduler;
+
+	private final HighlightShadowService shadow;
+
+	private final HighlightStrategyService strategies;
+
+	private final HighlightCancellationService cancellation;
+
+	@Inject
+	public HighlightStatsRestAction(Settings settings, Client client, RestController controller,
+			HighlightResponseCache responseCache, HighlightSingleFlight singleFlight,
+			HighlightTenantScheduler scheduler, HighlightShadowService shadow, HighlightStrategyService strategies,
+			HighlightCancellationService cancellation) {
+		super(settings, client);
+		this.responseCache = responseCache;
+		this.singleFlight = singleFlight;
+		this.scheduler = scheduler;
+		this.shadow = shadow;
+		this.strategies = strategies;
+		this.cancellation = cancellation;
+		controller.registerHandler(GET, "/_highlight/_stats", this);
+	}
+
+	@Override
+	public void handleRequest(final RestRequest request, final RestChannel channel) {
+		try {
+			XContentBuilder builder = restContentBuilder(request);
+			builder.startObject();
+
+			CacheStats cacheStats = responseCache.stats();
+			builder.startObject("cache");
+			builder.field("enabled", responseCache.enabled());
+			builder.field("count", responseCache.count());
+			builder.field("max_size_in_bytes", responseCache.size().bytes());
+			builder.field("expire_in_millis", responseCache.expire().millis());
+			builder.field("hit_count", cacheStats.hitCount());
+			builder.field("miss_count", cacheStats.missCount());
+			builder.field("eviction_count", cacheStats.evictionCount());
+			builder.field("hit_rate", cacheStats.hitRate());
+			builder.endObject();
+
+			// identical requests folded into one execution
+			builder.startObject("coalesce");
+			builder.field("enabled", singleFlight.enabled());
+			builder.field("executed_count", singleFlight.executedCount());
+			builder.field("coalesced_count", singleFlight.coalescedCount());
+			builder.field("in_flight", singleFlight.inFlightCount());
+			builder.endObject();
+
+			// the turns of the tenants on this node
+			builder.startObject("scheduler");
+			builder.field("enabled", scheduler.enabled());
+			builder.field("concurrency", scheduler.concurrency());
+			builder.field("running", scheduler.running());
+			builder.field("queued", scheduler.queued());
+			builder.startObject("tenants");
+			for (HighlightTenantScheduler.Tenant tenant : scheduler.tenants()) {
+				long executed = tenant.executedCount();
+				builder.startObject(tenant.name());
+				builder.field("weight", tenant.weight());
+				builder.field("concurrency", tenant.concurrency());
+				builder.field("queue_size", tenant.queueSize());
+				builder.field("running", tenant.running());
+				builder.field("queued", tenant.queued());
+				builder.field("executed_count", executed);
+				builder.field("rejected_count", tenant.rejectedCount());
+				builder.field("queue_time_in_millis", TimeUnit.NANOSECONDS.toMillis(tenant.queueTimeNanos()));
+				builder.field("average_queue_time_in_millis",
+						executed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(tenant.queueTimeNanos() / executed));
+				builder.field("max_queue_time_in_millis", TimeUnit.NANOSECONDS.toMillis(tenant.maxQueueTimeNanos()));
+				builder.endObject();
+			}
+			builder.endObject();
+			builder.endObject();
+
+			// fields sampled by the shards of this node
+			builder.startObject("shadow");
+			builder.field("sample", shadow.sample());
+			builder.field("sampled_count", shadow.sampledCount());
+			builder.field("different_count", shadow.differentCount());
+			builder.field("current_time_in_nanos", shadow.currentNanos());
+			builder.field("candidate_time_in_nanos", shadow.candidateNanos());
+			builder.endObject();
+
+			builder.startObject("cancel");
+			builder.field("cancelled_count", cancellation.cancelledCount());
+			builder.endObject();
+
+			// the strategies the fields were highlighted with on this node
+			builder.startObject("strategies");
+			builder.field("adaptive", strategies.adaptive());
+			builder.field("term_vector_min_chars", strategies.termVectorMinChars());
+			builder.startObject("fields");
+			for (Map.Entry<String, FieldStats> entry : strategies.fields().entrySet()) {
+				FieldStats fieldStats = entry.getValue();
+				builder.startObject(entry.getKey());
+				builder.field("values", fieldStats.values());
+				builder.field("average_chars", fieldStats.values() == 0 ? 0 : fieldStats.chars() / fieldStats.values());
+				builder.field("last", fieldStats.last() == null ? null : fieldStats.last().value());
+				builder.field("term_vector_misses", fieldStats.termVectorMisses());
+				for (Strategy strategy : Strategy.values()) {
+					long selected = fieldStats.selected(strategy);
+					builder.startObject(strategy.value());
+					builder.field("count", selected);
+					builder.field("hit_count", fieldStats.hits(strategy));
+					builder.field("hit_rate", selected == 0 ? 0d : (double) fieldStats.hits(strategy) / selected);
+					builder.endObject();
+				}
+				builder.endObject();
+			}
+			builder.endObject();
+			builder.endObject();
+
+			builder.endObject();
+			channel.sendResponse(new XContentRestResponse(request, OK, builder));
+		} catch (Exception e) {
+			try {
+				channel.sendResponse(new XContentThrowableRestResponse(request, e));
+			} catch (IOException e1) {
+				logger.error("Failed to send failure response", e1);
+			}
+		}
+	}
+}
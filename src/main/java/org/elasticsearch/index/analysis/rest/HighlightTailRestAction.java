@@ -0,0 +1,459 @@
+package org.elasticsearch.index.analysis.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.CONFLICT;
+import static org.elasticsearch.rest.RestStatus.NOT_FOUND;
+import static org.elasticsearch.rest.RestStatus.OK;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.stats.IndexStats;
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.UUID;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * "_highlight/_tail" pushes the new hits of a "_highlight" request, highlighted,
+ * to a client which long polls them.
+ * <p>
+ * The first call takes the request (a body, or "q"), resolves its fields and
+ * rewrites its source once and returns a "tail_id" with the latest "size"
+ * hits. Each call with the
+ * "tail_id" then waits up to "wait" for hits after the last returned one, by
+ * the cursor field and "_uid". While the refresh counts of the indices do not
+ * change nothing new is visible, the tail only searches again once they do.
+ * A tail not polled for "highlight.tail.keep_alive" is dropped.
+ */
+public class HighlightTailRestAction extends AbstractHighlightRestAction {
+
+	private final ThreadPool threadPool;
+
+	private final int pageSize;
+
+	private final TimeValue interval;
+
+	private final TimeValue defaultWait;
+
+	private final TimeValue maxWait;
+
+	private final Cache<String, Tail> tails;
+
+	@Inject
+	public HighlightTailRestAction(Settings settings, Client client, RestController controller,
+			ClusterService clusterService, ThreadPool threadPool) {
+		super(settings, client, clusterService);
+		this.threadPool = threadPool;
+		this.pageSize = settings.getAsInt("highlight.tail.size", 100);
+		this.interval = settings.getAsTime("highlight.tail.interval", TimeValue.timeValueSeconds(1));
+		this.defaultWait = settings.getAsTime("highlight.tail.wait", TimeValue.timeValueSeconds(30));
+		this.maxWait = settings.getAsTime("highlight.tail.max_wait", TimeValue.timeValueMinutes(1));
+		TimeValue keepAlive = settings.getAsTime("highlight.tail.keep_alive", TimeValue.timeValueMinutes(5));
+		this.tails = CacheBuilder.newBuilder().maximumSize(settings.getAsInt("highlight.tail.max_tails", 1000))
+				.expireAfterAccess(keepAlive.millis(), TimeUnit.MILLISECONDS).build();
+		controller.registerHandler(GET, "/_highlight/_tail", this);
+		controller.registerHandler(POST, "/_highlight/_tail", this);
+		controller.registerHandler(GET, "/{index}/_highlight/_tail", this);
+		controller.registerHandler(POST, "/{index}/_highlight/_tail", this);
+		controller.registerHandler(GET, "/{index}/{type}/_highlight/_tail", this);
+		controller.registerHandler(POST, "/{index}/{type}/_highlight/_tail", this);
+	}
+
+	@Override
+	public void handleRequest(final RestRequest request, final RestChannel channel) {
+		String tailId = request.param("tail_id");
+		if (tailId == null) {
+			start(request, channel);
+			return;
+		}
+		Tail tail = tails.getIfPresent(tailId);
+		if (tail == null) {
+			sendError(request, channel, NOT_FOUND, "tail [" + tailId + "] not found, it expired or never existed");
+			return;
+		}
+		if (!tail.polling.compareAndSet(false, true)) {
+			sendError(request, channel, CONFLICT, "tail [" + tailId + "] is already polled");
+			return;
+		}
+		long wait = Math.min(request.paramAsTime("wait", defaultWait).nanos(), maxWait.nanos());
+		try {
+			new Poll(tail, request, channel, System.nanoTime() + wait).run();
+		} catch (Throwable e) {
+			tail.polling.set(false);
+			sendFailure(request, channel, e);
+		}
+	}
+
+	private void start(final RestRequest request, final RestChannel channel) {
+		final Tail tail;
+		try {
+			SearchRequest searchRequest = parseSearchRequest(request);
+			BytesReference body = searchRequest.source();
+			if (body == null) {
+				String queryString = request.param("q");
+				if (queryString == null) {
+					throw new ElasticSearchIllegalArgumentException("tail requires a request body or [q]");
+				}
+				body = XContentFactory.jsonBuilder().startObject().startObject("query").startObject("query_string")
+						.field("query", queryString).endObject().endObject().startObject("highlight").endObject()
+						.endObject().bytes();
+			}
+			Set<String> fields = resolveFields(searchRequest.indices(), searchRequest.types());
+			searchRequest.source(body, false);
+			rewriteSource(searchRequest, fields, highlightFields(request, fields), highlightOptions(request), null);
+			BytesReference source = searchRequest.source().copyBytesArray();
+			tail = new Tail(UUID.randomBase64UUID(), searchRequest.indices(), searchRequest.types(),
+					searchRequest.routing(), source, query(source), request.paramAsInt("size", pageSize));
+		} catch (Exception e) {
+			sendBadRequest(request, channel, e);
+			return;
+		}
+		tails.put(tail.id, tail);
+
+		// the refresh counts are read before the search, a refresh in between
+		// only causes one more search
+		refreshCounts(tail, new ActionListener<String>() {
+			@Override
+			public void onResponse(final String refreshCounts) {
+				SearchRequest searchRequest;
+				try {
+					searchRequest = searchRequest(tail, SortOrder.DESC);
+				} catch (Exception e) {
+					onFailure(e);
+					return;
+				}
+				client.search(searchRequest, new ActionListener<SearchResponse>() {
+					@Override
+					public void onResponse(SearchResponse response) {
+						SearchHit[] hits = response.getHits().getHits();
+						tail.refreshCounts = refreshCounts;
+						if (hits.length > 0) {
+							advance(tail, hits[0]);
+						}
+						// the latest hits, oldest first like the following polls
+						SearchHit[] ascending = new SearchHit[hits.length];
+						for (int i = 0; i < hits.length; i++) {
+							ascending[i] = hits[hits.length - 1 - i];
+						}
+						sendHits(request, channel, tail, ascending);
+					}
+
+					@Override
+					public void onFailure(Throwable e) {
+						tails.invalidate(tail.id);
+						sendFailure(request, channel, e);
+					}
+				});
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				tails.invalidate(tail.id);
+				sendFailure(request, channel, e);
+			}
+		});
+	}
+
+	/**
+	 * one long poll of a tail, checks the refresh counts every interval until
+	 * new hits are visible or the wait is over.
+	 */
+	private class Poll implements Runnable {
+
+		private final Tail tail;
+
+		private final RestRequest request;
+
+		private final RestChannel channel;
+
+		private final long deadline;
+
+		private final AtomicBoolean gone = new AtomicBoolean();
+
+		private final HighlightDisconnectWatch watch;
+
+		Poll(Tail tail, RestRequest request, RestChannel channel, long deadline) {
+			this.tail = tail;
+			this.request = request;
+			this.channel = channel;
+			this.deadline = deadline;
+			// a client which is gone stops the waiting
+			this.watch = HighlightDisconnectWatch.watch(channel, new Runnable() {
+				@Override
+				public void run() {
+					gone.set(true);
+				}
+			});
+		}
+
+		@Override
+		public void run() {
+			if (gone.get()) {
+				tail.polling.set(false);
+				return;
+			}
+			try {
+				refreshCounts(tail, new ActionListener<String>() {
+					@Override
+					public void onResponse(String refreshCounts) {
+						if (!tail.more && refreshCounts.equals(tail.refreshCounts)) {
+							waitOrRespond(new SearchHit[0]);
+							return;
+						}
+						search(refreshCounts);
+					}
+
+					@Override
+					public void onFailure(Throwable e) {
+						respond(e);
+					}
+				});
+			} catch (Throwable e) {
+				respond(e);
+			}
+		}
+
+		private void search(final String refreshCounts) {
+			SearchRequest searchRequest;
+			try {
+				searchRequest = searchRequest(tail, SortOrder.ASC);
+			} catch (Exception e) {
+				respond(e);
+				return;
+			}
+			client.search(searchRequest, new ActionListener<SearchResponse>() {
+				@Override
+				public void onResponse(SearchResponse response) {
+					SearchHit[] hits = response.getHits().getHits();
+					tail.refreshCounts = refreshCounts;
+					// a full page leaves hits for the next poll
+					tail.more = hits.length == tail.size && tail.size > 0;
+					if (hits.length > 0) {
+						advance(tail, hits[hits.length - 1]);
+					}
+					waitOrRespond(hits);
+				}
+
+				@Override
+				public void onFailure(Throwable e) {
+					respond(e);
+				}
+			});
+		}
+
+		private void waitOrRespond(SearchHit[] hits) {
+			if (hits.length > 0 || System.nanoTime() + interval.nanos() > deadline) {
+				if (watch != null) {
+					watch.done();
+				}
+				tail.polling.set(false);
+				sendHits(request, channel, tail, hits);
+				return;
+			}
+			try {
+				threadPool.schedule(interval, ThreadPool.Names.SAME, this);
+			} catch (Throwable e) {
+				respond(e);
+			}
+		}
+
+		private void respond(Throwable e) {
+			if (watch != null) {
+				watch.done();
+			}
+			tail.polling.set(false);
+			sendFailure(request, channel, e);
+		}
+	}
+
+	/**
+	 * the rewritten request of the tail, filtered to the hits after its last
+	 * hit. The extra source replaces the query of the source.
+	 */
+	private SearchRequest searchRequest(Tail tail, SortOrder order) throws IOException {
+		SearchRequest searchRequest = new SearchRequest(tail.indices);
+		searchRequest.types(tail.types);
+		searchRequest.routing(tail.routing);
+		searchRequest.listenerThreaded(false);
+		searchRequest.source(tail.source, false);
+		SearchSourceBuilder extraSource = new SearchSourceBuilder().from(0).size(tail.size)
+				.sort(cursorField(), order).sort(UidFieldMapper.NAME, order);
+		if (tail.position != null) {
+			XContentBuilder query = XContentFactory.jsonBuilder().startObject().startObject("filtered");
+			if (tail.query == null) {
+				query.field("query", QueryBuilders.matchAllQuery());
+			} else {
+				query.rawField("query", tail.query);
+			}
+			query.field("filter");
+			tail.position.filter().toXContent(query, ToXContent.EMPTY_PARAMS);
+			query.endObject().endObject();
+			extraSource.query(query.bytes());
+		}
+		searchRequest.extraSource(extraSource);
+		return searchRequest;
+	}
+
+	/**
+	 * the query of a rewritten source, null when it has none.
+	 */
+	private static BytesReference query(BytesReference source) throws IOException {
+		XContentParser parser = XContentFactory.xContent(source).createParser(source);
+		try {
+			if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+				return null;
+			}
+			while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+				String fieldName = parser.currentName();
+				parser.nextToken();
+				if (fieldName.equals("query")) {
+					return XContentFactory.jsonBuilder().copyCurrentStructure(parser).bytes();
+				}
+				parser.skipChildren();
+			}
+			return null;
+		} finally {
+			parser.close();
+		}
+	}
+
+	private void advance(Tail tail, SearchHit last) {
+		HighlightCursor position = new HighlightCursor(cursorField(), SortOrder.ASC, null, null).after(last);
+		if (position != null) {
+			tail.position = position;
+		}
+	}
+
+	/**
+	 * the refresh count of every index of the tail, new hits are only visible
+	 * once it changes.
+	 */
+	private void refreshCounts(Tail tail, final ActionListener<String> listener) {
+		client.admin().indices().prepareStats(tail.indices).clear().setRefresh(true)
+				.execute(new ActionListener<IndicesStatsResponse>() {
+					@Override
+					public void onResponse(IndicesStatsResponse response) {
+						StringBuilder sb = new StringBuilder();
+						for (IndexStats indexStats : new TreeMap<String, IndexStats>(response.getIndices()).values()) {
+							sb.append(indexStats.getIndex()).append(':')
+									.append(indexStats.getTotal().getRefresh().getTotal()).append(',');
+						}
+						listener.onResponse(sb.toString());
+					}
+
+					@Override
+					public void onFailure(Throwable e) {
+						listener.onFailure(e);
+					}
+				});
+	}
+
+	private void sendHits(RestRequest request, RestChannel channel, Tail tail, SearchHit[] hits) {
+		try {
+			XContentBuilder builder = restContentBuilder(request);
+			builder.startObject();
+			builder.field("tail_id", tail.id);
+			builder.startArray("hits");
+			for (SearchHit hit : hits) {
+				hit.toXContent(builder, request);
+			}
+			builder.endArray();
+			builder.endObject();
+			channel.sendResponse(new XContentRestResponse(request, OK, builder));
+		} catch (Exception e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("failed to execute tail (building response)", e);
+			}
+			sendFailure(request, channel, e);
+		}
+	}
+
+	private void sendError(RestRequest request, RestChannel channel, RestStatus status, String error) {
+		try {
+			XContentBuilder builder = restContentBuilder(request);
+			channel.sendResponse(new XContentRestResponse(request, status, builder.startObject().field("error", error)
+					.endObject()));
+		} catch (IOException e1) {
+			logger.error("Failed to send failure response", e1);
+		}
+	}
+
+	private void sendFailure(RestRequest request, RestChannel channel, Throwable e) {
+		try {
+			channel.sendResponse(new XContentThrowableRestResponse(request, e));
+		} catch (IOException e1) {
+			logger.error("Failed to send failure response", e1);
+		}
+	}
+
+	// the resolved request and position of one tail
+	private static class Tail {
+
+		final String id;
+
+		final String[] indices;
+
+		final String[] types;
+
+		final String routing;
+
+		// the rewritten source and its query
+		final BytesReference source;
+
+		final BytesReference query;
+
+		final int size;
+
+		final AtomicBoolean polling = new AtomicBoolean();
+
+		// written by one poll at a time
+		volatile HighlightCursor position;
+
+		volatile String refreshCounts;
+
+		volatile boolean more;
+
+		Tail(String id, String[] indices, String[] types, String routing, BytesReference source,
+				BytesReference query, int size) {
+			this.id = id;
+			this.indices = indices;
+			this.types = types;
+			this.routing = routing;
+			this.source = source;
+			this.query = query;
+			this.size = size;
+		}
+	}
+}
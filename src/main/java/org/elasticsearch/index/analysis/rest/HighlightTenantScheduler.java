@@ -0,0 +1,423 @@
+package org.elasticsearch.index.analysis.rest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Schedules the "_highlight" and "_mhighlight" requests of this node over a
+ * queue per tenant, so one noisy project can not take all the highlighting.
+ * The tenant of a request is the "X-Highlight-Tenant" header, the "tenant"
+ * param, or the "projectName" the query selects.
+ * <p>
+ * At most "highlight.scheduler.concurrency" requests execute at once, and at
+ * most the "concurrency" of their tenant. Waiting requests are dequeued
+ * weighted fair: a dequeue advances the virtual time of its tenant by 1 /
+ * weight and the tenant with the lowest time goes next, so a tenant of weight
+ * 2 gets twice the turns of a tenant of weight 1. A request is rejected when
+ * the queue of its tenant holds "queue_size" requests.
+ * <p>
+ * Tenants are configured under "highlight.scheduler.tenants.{name}", the
+ * others take "highlight.scheduler.default". "highlight.scheduler.enabled"
+ * (default false) turns the scheduler on.
+ */
+public class HighlightTenantScheduler extends AbstractComponent {
+
+	/**
+	 * the tenant of requests which select none, and of the tenants beyond
+	 * "highlight.scheduler.max_tenants".
+	 */
+	public static final String DEFAULT_TENANT = "_default";
+
+	private final ThreadPool threadPool;
+
+	private final boolean enabled;
+
+	private final int concurrency;
+
+	private final String header;
+
+	private final String field;
+
+	private final Pattern fieldQuery;
+
+	private final int maxTenants;
+
+	private final Settings defaults;
+
+	private final Map<String, Settings> configured;
+
+	// guarded by this
+	private final Map<String, Tenant> tenants = new HashMap<String, Tenant>();
+
+	private int running;
+
+	private int queued;
+
+	// the start time of the last dequeue
+	private double virtualTime;
+
+	@Inject
+	public HighlightTenantScheduler(Settings settings, ThreadPool threadPool) {
+		super(settings);
+		this.threadPool = threadPool;
+		this.enabled = settings.getAsBoolean("highlight.scheduler.enabled", false);
+		this.concurrency = Math.max(1, settings.getAsInt("highlight.scheduler.concurrency", Runtime.getRuntime()
+				.availableProcessors() * 2));
+		this.header = settings.get("highlight.scheduler.tenant_header", "X-Highlight-Tenant");
+		this.field = settings.get("highlight.scheduler.tenant_field", "projectName");
+		this.fieldQuery = Pattern.compile("(?:^|[\\s(+])" + Pattern.quote(field) + ":\"?([^\\s\")]+)");
+		this.maxTenants = settings.getAsInt("highlight.scheduler.max_tenants", 1000);
+		this.defaults = settings.getByPrefix("highlight.scheduler.default.");
+		this.configured = settings.getGroups("highlight.scheduler.tenants");
+	}
+
+	public boolean enabled() {
+		return enabled;
+	}
+
+	public int concurrency() {
+		return concurrency;
+	}
+
+	public synchronized int running() {
+		return running;
+	}
+
+	public synchronized int queued() {
+		return queued;
+	}
+
+	public synchronized List<Tenant> tenants() {
+		return new ArrayList<Tenant>(tenants.values());
+	}
+
+	/**
+	 * the tenant of a request, from its header, its "tenant" param, or the
+	 * tenant field its "q" param or its query selects.
+	 */
+	public String tenant(RestRequest request, BytesReference source) {
+		String tenant = request.header(header);
+		if (tenant == null) {
+			tenant = request.param("tenant");
+		}
+		if (tenant == null && request.param("q") != null) {
+			Matcher matcher = fieldQuery.matcher(request.param("q"));
+			if (matcher.find()) {
+				tenant = matcher.group(1);
+			}
+		}
+		if (tenant == null && source != null && source.length() > 0) {
+			try {
+				tenant = find(XContentHelper.convertToMap(source, false).v2());
+			} catch (Exception e) {
+				// the search reports the broken source
+				logger.trace("failed to read the tenant from the source", e);
+			}
+		}
+		return tenant == null || tenant.isEmpty() ? DEFAULT_TENANT : tenant;
+	}
+
+	// the value of the first term, match or query string on the tenant field
+	private String find(Object node) {
+		if (node instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) node).entrySet()) {
+				if (field.equals(entry.getKey())) {
+					Object value = entry.getValue();
+					if (value instanceof Map) {
+						Map<?, ?> options = (Map<?, ?>) value;
+						value = options.containsKey("value") ? options.get("value") : options.get("query");
+					}
+					if (value instanceof String || value instanceof Number) {
+						return value.toString();
+					}
+				} else if ("query".equals(entry.getKey()) && entry.getValue() instanceof String) {
+					Matcher matcher = fieldQuery.matcher((String) entry.getValue());
+					if (matcher.find()) {
+						return matcher.group(1);
+					}
+				}
+				String tenant = find(entry.getValue());
+				if (tenant != null) {
+					return tenant;
+				}
+			}
+		} else if (node instanceof Collection) {
+			for (Object value : (Collection<?>) node) {
+				String tenant = find(value);
+				if (tenant != null) {
+					return tenant;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * a permit for one request of the tenant, the request runs once it is
+	 * {@link Permit#execute(Runnable) executed} and gives its turn back once
+	 * it is {@link Permit#release() released}.
+	 */
+	public synchronized Permit permit(String name) {
+		Tenant tenant = tenants.get(name);
+		if (tenant == null) {
+			if (tenants.size() >= maxTenants && !configured.containsKey(name) && !DEFAULT_TENANT.equals(name)) {
+				return permit(DEFAULT_TENANT);
+			}
+			Settings tenantSettings = configured.get(name);
+			if (tenantSettings == null) {
+				tenantSettings = ImmutableSettings.EMPTY;
+			}
+			tenant = new Tenant(name, tenantSettings);
+			tenants.put(name, tenant);
+		}
+		return new Permit(tenant);
+	}
+
+	private void execute(Permit permit, Runnable task) {
+		Tenant tenant = permit.tenant;
+		synchronized (this) {
+			if (permit.released.get()) {
+				return;
+			}
+			if (running >= concurrency || tenant.running >= tenant.concurrency || !tenant.queue.isEmpty()) {
+				if (tenant.queue.size() >= tenant.queueSize) {
+					tenant.rejectedCount++;
+					throw new EsRejectedExecutionException("highlight queue of tenant [" + tenant.name
+							+ "] is full (" + tenant.queueSize + ")");
+				}
+				permit.task = task;
+				permit.queuedAt = System.nanoTime();
+				tenant.queue.add(permit);
+				queued++;
+				return;
+			}
+			start(permit, 0);
+		}
+		task.run();
+	}
+
+	private void release(Permit permit) {
+		List<Runnable> next = new ArrayList<Runnable>();
+		synchronized (this) {
+			Tenant tenant = permit.tenant;
+			if (permit.started) {
+				running--;
+				tenant.running--;
+			} else if (tenant.queue.remove(permit)) {
+				queued--;
+			}
+			while (running < concurrency) {
+				Tenant selected = null;
+				for (Tenant candidate : tenants.values()) {
+					if (!candidate.queue.isEmpty() && candidate.running < candidate.concurrency
+							&& (selected == null || candidate.pass < selected.pass)) {
+						selected = candidate;
+					}
+				}
+				if (selected == null) {
+					break;
+				}
+				Permit dequeued = selected.queue.poll();
+				queued--;
+				next.add(dequeued.task);
+				start(dequeued, System.nanoTime() - dequeued.queuedAt);
+			}
+		}
+		// not on the thread of the released request, which may be a network
+		// thread or the caller of a failed request
+		for (Runnable task : next) {
+			threadPool.generic().execute(task);
+		}
+	}
+
+	private boolean cancel(Permit permit) {
+		synchronized (this) {
+			// only a queued permit holds its task
+			if (permit.task == null || !permit.released.compareAndSet(false, true)) {
+				return false;
+			}
+			permit.tenant.queue.remove(permit);
+			queued--;
+			permit.task = null;
+			return true;
+		}
+	}
+
+	// guarded by this
+	private void start(Permit permit, long queueTime) {
+		Tenant tenant = permit.tenant;
+		// a tenant idle for a while does not take the turns it missed
+		double start = Math.max(tenant.pass, virtualTime);
+		virtualTime = start;
+		tenant.pass = start + 1.0 / tenant.weight;
+		tenant.running++;
+		running++;
+		tenant.executedCount++;
+		tenant.queueTimeNanos += queueTime;
+		tenant.maxQueueTimeNanos = Math.max(tenant.maxQueueTimeNanos, queueTime);
+		permit.started = true;
+		permit.task = null;
+	}
+
+	/**
+	 * the turn of one request.
+	 */
+	public class Permit {
+
+		private final Tenant tenant;
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		// guarded by the scheduler
+		private boolean started;
+
+		private Runnable task;
+
+		private long queuedAt;
+
+		Permit(Tenant tenant) {
+			this.tenant = tenant;
+		}
+
+		public String tenant() {
+			return tenant.name;
+		}
+
+		/**
+		 * runs the task on this thread when the tenant has a turn, otherwise
+		 * on the generic thread pool once it gets one.
+		 *
+		 * @throws EsRejectedExecutionException
+		 *             the queue of the tenant is full
+		 */
+		public void execute(Runnable task) {
+			HighlightTenantScheduler.this.execute(this, task);
+		}
+
+		/**
+		 * drops the task while it waits in the queue, e.g. when its client is
+		 * gone. Returns false when the task runs already or was not queued.
+		 */
+		public boolean cancel() {
+			return HighlightTenantScheduler.this.cancel(this);
+		}
+
+		/**
+		 * the request is done, or its queued task is dropped. Released more
+		 * than once it only counts once.
+		 */
+		public void release() {
+			if (released.compareAndSet(false, true)) {
+				HighlightTenantScheduler.this.release(this);
+			}
+		}
+	}
+
+	/**
+	 * the queue and statistics of one tenant.
+	 */
+	public class Tenant {
+
+		private final String name;
+
+		private final double weight;
+
+		private final int concurrency;
+
+		private final int queueSize;
+
+		// guarded by the scheduler
+		private final Deque<Permit> queue = new ArrayDeque<Permit>();
+
+		private int running;
+
+		private double pass;
+
+		private long executedCount;
+
+		private long rejectedCount;
+
+		private long queueTimeNanos;
+
+		private long maxQueueTimeNanos;
+
+		Tenant(String name, Settings settings) {
+			this.name = name;
+			this.weight = Math.max(0.01, settings.getAsDouble("weight", defaults.getAsDouble("weight", 1.0)));
+			int nodeConcurrency = HighlightTenantScheduler.this.concurrency;
+			this.concurrency = Math.max(1,
+					settings.getAsInt("concurrency", defaults.getAsInt("concurrency", nodeConcurrency)));
+			this.queueSize = settings.getAsInt("queue_size", defaults.getAsInt("queue_size", 100));
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public double weight() {
+			return weight;
+		}
+
+		public int concurrency() {
+			return concurrency;
+		}
+
+		public int queueSize() {
+			return queueSize;
+		}
+
+		public int running() {
+			synchronized (HighlightTenantScheduler.this) {
+				return running;
+			}
+		}
+
+		public int queued() {
+			synchronized (HighlightTenantScheduler.this) {
+				return queue.size();
+			}
+		}
+
+		public long executedCount() {
+			synchronized (HighlightTenantScheduler.this) {
+				return executedCount;
+			}
+		}
+
+		public long rejectedCount() {
+			synchronized (HighlightTenantScheduler.this) {
+				return rejectedCount;
+			}
+		}
+
+		public long queueTimeNanos() {
+			synchronized (HighlightTenantScheduler.this) {
+				return queueTimeNanos;
+			}
+		}
+
+		public long maxQueueTimeNanos() {
+			synchronized (HighlightTenantScheduler.this) {
+				return maxQueueTimeNanos;
+			}
+		}
+	}
+}
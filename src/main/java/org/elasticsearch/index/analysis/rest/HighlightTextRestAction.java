@@ -0,0 +1,347 @@
+package org.elasticsearch.index.analysis.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.BAD_REQUEST;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.highlight.NeloHighlighter;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.SizeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.indices.analysis.IndicesAnalysisService;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * "_highlight/_text" highlights raw texts which are not indexed (yet), e.g.
+ * the lines of a live tail, with the rendering of nelo-highlight.
+ * <p>
+ * The body is NDJSON: a header line {"query", "field", "analyzer", "pre_tag",
+ * "post_tag", "string_size"} (the url parameters "q", "field", ... are the
+ * defaults), then one line per text, a json string or {"text": ...}. The
+ * response has one line per text, in order, with its "highlight" or "error".
+ * <p>
+ * The query is parsed once by the classic query parser. A query of terms is
+ * matched by its term set against every text, other queries (phrases,
+ * wildcards, ...) have their terms extracted per text like a hit. A "field"
+ * takes its analyzers from the mapping of the index of the request, which
+ * needs a shard on the receiving node; an "analyzer" is one of the index, or a
+ * global analyzer without an index. At most "highlight.text.max_lines"
+ * (default 10000) texts are taken per request.
+ */
+public class HighlightTextRestAction extends BaseRestHandler {
+
+	private static final String CONTENT_TYPE = "application/x-ndjson; charset=UTF-8";
+
+	private final IndicesService indicesService;
+
+	private final IndicesAnalysisService indicesAnalysisService;
+
+	private final NeloHighlighter highlighter;
+
+	private final ThreadPool threadPool;
+
+	private final int maxLines;
+
+	@Inject
+	public HighlightTextRestAction(Settings settings, Client client, RestController controller,
+			IndicesService indicesService, IndicesAnalysisService indicesAnalysisService, NeloHighlighter highlighter,
+			ThreadPool threadPool) {
+		super(settings, client);
+		this.indicesService = indicesService;
+		this.indicesAnalysisService = indicesAnalysisService;
+		this.highlighter = highlighter;
+		this.threadPool = threadPool;
+		this.maxLines = settings.getAsInt("highlight.text.max_lines", 10000);
+		controller.registerHandler(GET, "/_highlight/_text", this);
+		controller.registerHandler(POST, "/_highlight/_text", this);
+		controller.registerHandler(GET, "/{index}/_highlight/_text", this);
+		controller.registerHandler(POST, "/{index}/_highlight/_text", this);
+	}
+
+	@Override
+	public void handleRequest(final RestRequest request, final RestChannel channel) {
+		final Batch batch;
+		try {
+			batch = parse(request);
+		} catch (Exception e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("failed to parse text highlight request", e);
+			}
+			try {
+				XContentBuilder builder = restContentBuilder(request);
+				channel.sendResponse(new XContentRestResponse(request, BAD_REQUEST, builder.startObject()
+						.field("error", e.getMessage()).endObject()));
+			} catch (IOException e1) {
+				logger.error("Failed to send failure response", e1);
+			}
+			return;
+		}
+
+		// thousands of texts are not rendered on the network thread
+		try {
+			threadPool.executor(ThreadPool.Names.SEARCH).execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						channel.sendResponse(new BytesRestResponse(render(batch), CONTENT_TYPE));
+					} catch (Throwable e) {
+						onFailure(request, channel, e);
+					}
+				}
+			});
+		} catch (Throwable e) {
+			onFailure(request, channel, e);
+		}
+	}
+
+	private void onFailure(RestRequest request, RestChannel channel, Throwable e) {
+		try {
+			channel.sendResponse(new XContentThrowableRestResponse(request, e));
+		} catch (IOException e1) {
+			logger.error("Failed to send failure response", e1);
+		}
+	}
+
+	private Batch parse(RestRequest request) throws Exception {
+		Batch batch = new Batch();
+		String queryString = request.param("q");
+		String field = request.param("field");
+		String analyzerName = request.param("analyzer");
+		String defaultOperator = request.param("default_operator");
+		batch.preTag = request.param("pre_tag", "<em>");
+		batch.postTag = request.param("post_tag", "</em>");
+		String stringSize = request.param("string_size");
+
+		// the texts are rendered on another thread, after the network buffer is reused
+		BytesReference content = request.contentUnsafe() ? request.content().copyBytesArray() : request.content();
+		int from = 0;
+		boolean header = true;
+		while (from < content.length()) {
+			int to = from;
+			while (to < content.length() && content.get(to) != '\n') {
+				to++;
+			}
+			BytesReference line = content.slice(from, to - from);
+			from = to + 1;
+			if (line.length() == 0 || (line.length() == 1 && line.get(0) == '\r')) {
+				continue;
+			}
+			if (header) {
+				header = false;
+				Map<String, Object> map = XContentFactory.xContent(line).createParser(line).mapAndClose();
+				queryString = string(map, "query", queryString);
+				field = string(map, "field", field);
+				analyzerName = string(map, "analyzer", analyzerName);
+				defaultOperator = string(map, "default_operator", defaultOperator);
+				batch.preTag = string(map, "pre_tag", batch.preTag);
+				batch.postTag = string(map, "post_tag", batch.postTag);
+				stringSize = string(map, "string_size", stringSize);
+				continue;
+			}
+			if (batch.lines.size() == maxLines) {
+				throw new ElasticSearchIllegalArgumentException("text highlight takes at most [" + maxLines
+						+ "] texts per request");
+			}
+			batch.lines.add(line);
+		}
+
+		if (queryString == null) {
+			throw new ElasticSearchIllegalArgumentException("text highlight requires a [query]");
+		}
+		if (stringSize != null) {
+			if (stringSize.endsWith("b") || stringSize.endsWith("B")) {
+				batch.sizeValue = ByteSizeValue.parseBytesSizeValue(stringSize).bytes();
+			} else {
+				batch.sizeValue = SizeValue.parseSizeValue(stringSize).singles();
+			}
+		}
+
+		String index = request.param("index");
+		IndexService indexService = index == null ? null : indicesService.indexService(index);
+		Analyzer searchAnalyzer = null;
+		if (field != null) {
+			if (indexService == null) {
+				throw new ElasticSearchIllegalArgumentException("the [field] of text highlight needs an index with a"
+						+ " shard on this node, [" + index + "] has none");
+			}
+			FieldMapper<?> mapper = indexService.mapperService().smartNameFieldMapper(field);
+			if (mapper == null) {
+				throw new ElasticSearchIllegalArgumentException("no field [" + field + "] in [" + index + "]");
+			}
+			batch.indexName = mapper.names().indexName();
+			batch.analyzed = mapper.fieldType().tokenized();
+			batch.analyzer = mapper.indexAnalyzer();
+			searchAnalyzer = mapper.searchAnalyzer();
+		} else {
+			batch.indexName = "text";
+			batch.analyzed = true;
+			if (analyzerName == null) {
+				analyzerName = "standard";
+			}
+		}
+		if (analyzerName != null) {
+			Analyzer analyzer = indexService == null ? indicesAnalysisService.analyzer(analyzerName) : indexService
+					.analysisService().analyzer(analyzerName);
+			if (analyzer == null) {
+				throw new ElasticSearchIllegalArgumentException("no analyzer [" + analyzerName + "]");
+			}
+			batch.analyzer = analyzer;
+			searchAnalyzer = analyzer;
+		}
+
+		QueryParser parser = new QueryParser(Version.LUCENE_43, batch.indexName, searchAnalyzer);
+		if ("AND".equals(defaultOperator)) {
+			parser.setDefaultOperator(QueryParser.AND_OPERATOR);
+		} else if (defaultOperator != null && !"OR".equals(defaultOperator)) {
+			throw new ElasticSearchIllegalArgumentException("Unsupported defaultOperator [" + defaultOperator
+					+ "], can either be [OR] or [AND]");
+		}
+		batch.query = parser.parse(queryString);
+		ArrayList<String> terms = new ArrayList<String>();
+		if (collectTerms(batch.query, batch.indexName, terms)) {
+			batch.queryTerms = new NeloHighlighter.QueryTerms(terms);
+		}
+		return batch;
+	}
+
+	/**
+	 * one line per text, the highlighted fragments of the text or why it
+	 * could not be highlighted.
+	 */
+	private byte[] render(Batch batch) throws IOException {
+		BytesStreamOutput out = new BytesStreamOutput();
+		for (BytesReference line : batch.lines) {
+			XContentBuilder builder = XContentFactory.jsonBuilder(out);
+			builder.startObject();
+			try {
+				String text = text(line);
+				NeloHighlighter.QueryTerms queryTerms = batch.queryTerms;
+				if (queryTerms == null) {
+					queryTerms = new NeloHighlighter.QueryTerms(highlighter.terms(batch.query, batch.analyzer,
+							batch.indexName, batch.indexName, text, null));
+				}
+				List<Text> fragments = highlighter.render(batch.analyzer, batch.indexName, batch.analyzed,
+						Collections.<Object> singletonList(text), queryTerms, batch.preTag, batch.postTag,
+						batch.sizeValue);
+				builder.startArray("highlight");
+				for (Text fragment : fragments) {
+					builder.value(fragment);
+				}
+				builder.endArray();
+			} catch (Exception e) {
+				builder.field("error", e.getMessage());
+			}
+			builder.endObject();
+			builder.flush();
+			out.writeByte((byte) '\n');
+		}
+		return out.bytes().toBytes();
+	}
+
+	private static String text(BytesReference line) throws IOException {
+		XContentParser parser = XContentFactory.xContent(line).createParser(line);
+		try {
+			XContentParser.Token token = parser.nextToken();
+			if (token == XContentParser.Token.VALUE_STRING) {
+				return parser.text();
+			}
+			if (token == XContentParser.Token.START_OBJECT) {
+				Object text = parser.mapOrdered().get("text");
+				if (text != null) {
+					return text.toString();
+				}
+			}
+		} finally {
+			parser.close();
+		}
+		throw new ElasticSearchIllegalArgumentException("a text line is a json string or {\"text\": ...}");
+	}
+
+	/**
+	 * collects the terms of a query which only consists of term queries on the
+	 * field, such a query matches the same terms in every text.
+	 *
+	 * @return false when the terms depend on the text
+	 */
+	private static boolean collectTerms(Query query, String field, List<String> terms) {
+		if (query instanceof TermQuery) {
+			Term term = ((TermQuery) query).getTerm();
+			if (field.equals(term.field())) {
+				terms.add(term.text());
+			}
+			return true;
+		}
+		if (query instanceof BooleanQuery) {
+			for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+				// like the span term extraction, prohibited terms are not highlighted
+				if (!clause.isProhibited() && !collectTerms(clause.getQuery(), field, terms)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static String string(Map<String, Object> map, String key, String defaultValue) {
+		Object value = map.get(key);
+		return value == null ? defaultValue : value.toString();
+	}
+
+	// the parsed request, shared by the texts
+	private static class Batch {
+
+		Query query;
+
+		// null when the terms are extracted per text
+		NeloHighlighter.QueryTerms queryTerms;
+
+		Analyzer analyzer;
+
+		String indexName;
+
+		boolean analyzed;
+
+		String preTag;
+
+		String postTag;
+
+		long sizeValue = Long.MAX_VALUE;
+
+		final List<BytesReference> lines = new ArrayList<BytesReference>();
+	}
+}
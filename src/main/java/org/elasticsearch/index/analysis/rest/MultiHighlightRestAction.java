@@ -0,0 +1,206 @@
+package org.elasticsearch.index.analysis.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.OK;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.IgnoreIndices;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+import org.elasticsearch.rest.action.support.RestActions;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+
+/**
+ * "_mhighlight" takes the header / body lines of "_msearch". Entries which
+ * target the same indices and types share one field resolution, identical
+ * bodies share one rewrite, and all entries run concurrently as one multi
+ * search.
+ */
+public class MultiHighlightRestAction extends AbstractHighlightRestAction {
+
+	private static final SearchResponse EMPTY_RESPONSE = new SearchResponse(InternalSearchResponse.EMPTY, null, 0, 0,
+			0, ShardSearchFailure.EMPTY_ARRAY);
+
+	private final HighlightTenantScheduler scheduler;
+
+	@Inject
+	public MultiHighlightRestAction(Settings settings, Client client, RestController controller,
+			ClusterService clusterService, HighlightTenantScheduler scheduler) {
+		super(settings, client, clusterService);
+		this.scheduler = scheduler;
+		controller.registerHandler(GET, "/_mhighlight", this);
+		controller.registerHandler(POST, "/_mhighlight", this);
+		controller.registerHandler(GET, "/{index}/_mhighlight", this);
+		controller.registerHandler(POST, "/{index}/_mhighlight", this);
+		controller.registerHandler(GET, "/{index}/{type}/_mhighlight", this);
+		controller.registerHandler(POST, "/{index}/{type}/_mhighlight", this);
+	}
+
+	@Override
+	public void handleRequest(final RestRequest request, final RestChannel channel) {
+		final List<SearchRequest> entries;
+		// entries pruned away by the timestamp range get an empty response
+		final boolean[] pruned;
+		MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+		try {
+			String[] indices = RestActions.splitIndices(request.param("index"));
+			String[] types = RestActions.splitTypes(request.param("type"));
+			IgnoreIndices ignoreIndices = null;
+			if (request.hasParam("ignore_indices")) {
+				ignoreIndices = IgnoreIndices.fromString(request.param("ignore_indices"));
+			}
+			MultiSearchRequest parsed = new MultiSearchRequest();
+			parsed.add(request.content(), request.contentUnsafe(), indices, types, request.param("search_type"),
+					ignoreIndices);
+			entries = parsed.requests();
+			pruned = new boolean[entries.size()];
+			for (int i = 0; i < entries.size(); i++) {
+				SearchRequest searchRequest = entries.get(i);
+				searchRequest.listenerThreaded(false);
+				pruned[i] = !pruneIndices(request, searchRequest);
+			}
+		} catch (Exception e) {
+			sendBadRequest(request, channel, e);
+			return;
+		}
+
+		// entries whose fields can not be resolved answer with their failure
+		final Throwable[] failures = new Throwable[entries.size()];
+		Map<String, Object> highlightOptions = highlightOptions(request);
+		Map<String, Set<String>> fieldsCache = new HashMap<String, Set<String>>();
+		Map<String, BytesReference> sourceCache = new HashMap<String, BytesReference>();
+		for (int i = 0; i < entries.size(); i++) {
+			if (pruned[i]) {
+				continue;
+			}
+			SearchRequest searchRequest = entries.get(i);
+			try {
+				String target = Arrays.toString(searchRequest.indices()) + Arrays.toString(searchRequest.types());
+				Set<String> fields = fieldsCache.get(target);
+				if (fields == null) {
+					fields = resolveFields(searchRequest.indices(), searchRequest.types());
+					fieldsCache.put(target, fields);
+				}
+				if (searchRequest.source() != null) {
+					String sourceKey = target + searchRequest.source().toUtf8();
+					BytesReference rewritten = sourceCache.get(sourceKey);
+					if (rewritten == null) {
+						rewriteSource(searchRequest, fields, highlightOptions);
+						sourceCache.put(sourceKey, searchRequest.source());
+					} else {
+						searchRequest.source(rewritten, false);
+					}
+				}
+			} catch (Exception e) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("failed to prepare multi highlight entry [{}]", e, i);
+				}
+				failures[i] = e;
+				continue;
+			}
+			multiSearchRequest.add(searchRequest);
+		}
+
+		final HighlightTenantScheduler.Permit[] permit = new HighlightTenantScheduler.Permit[1];
+		final ActionListener<MultiSearchResponse> listener = new ActionListener<MultiSearchResponse>() {
+			@Override
+			public void onResponse(MultiSearchResponse response) {
+				if (permit[0] != null) {
+					permit[0].release();
+				}
+				try {
+					XContentBuilder builder = restContentBuilder(request);
+					builder.startObject();
+					builder.startArray("responses");
+					MultiSearchResponse.Item[] items = response.getResponses();
+					int item = 0;
+					for (int i = 0; i < entries.size(); i++) {
+						builder.startObject();
+						if (pruned[i]) {
+							EMPTY_RESPONSE.toXContent(builder, request);
+						} else if (failures[i] != null) {
+							builder.field("error", ExceptionsHelper.detailedMessage(failures[i]));
+						} else if (items[item].isFailure()) {
+							builder.field("error", items[item].getFailureMessage());
+							item++;
+						} else {
+							items[item].getResponse().toXContent(builder, request);
+							item++;
+						}
+						builder.endObject();
+					}
+					builder.endArray();
+					builder.endObject();
+					channel.sendResponse(new XContentRestResponse(request, OK, builder));
+				} catch (Exception e) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("failed to execute multi highlight (building response)", e);
+					}
+					onFailure(e);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				if (permit[0] != null) {
+					permit[0].release();
+				}
+				try {
+					channel.sendResponse(new XContentThrowableRestResponse(request, e));
+				} catch (IOException e1) {
+					logger.error("Failed to send failure response", e1);
+				}
+			}
+		};
+
+		if (multiSearchRequest.requests().isEmpty()) {
+			listener.onResponse(new MultiSearchResponse(new MultiSearchResponse.Item[0]));
+			return;
+		}
+		if (!scheduler.enabled()) {
+			client.multiSearch(multiSearchRequest, listener);
+			return;
+		}
+		// the entries take one turn, of the tenant of the first entry
+		final MultiSearchRequest scheduled = multiSearchRequest;
+		try {
+			permit[0] = scheduler.permit(scheduler.tenant(request, scheduled.requests().get(0).source()));
+			permit[0].execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						client.multiSearch(scheduled, listener);
+					} catch (Throwable e) {
+						listener.onFailure(e);
+					}
+				}
+			});
+		} catch (Exception e) {
+			listener.onFailure(e);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package org.elasticsearch.index.analysis.script;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.SizeValue;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.script.AbstractSearchScript;
+import org.elasticsearch.script.ExecutableScript;
+import org.elasticsearch.script.NativeScriptFactory;
+
+/**
+ * The source of a hit with the long values of the "fields" param cut after
+ * "limit" chars, returned as the "partial" script field in place of the
+ * "_source" so the shard only ships what the highlight response shows.
+ * <p>
+ * The coordinator renders a value up to char limit + 1, the cut keeps the
+ * token around that boundary whole by stopping at the next whitespace. Values
+ * without whitespace after the boundary are cut at limit + 3, fields which
+ * are not analyzed strings (their value is shown whole) are kept as they are.
+ */
+public class TruncatedSourceScript extends AbstractSearchScript {
+
+	public static final String NAME = "highlight_truncated_source";
+
+	public static class Factory implements NativeScriptFactory {
+
+		@Override
+		public ExecutableScript newScript(Map<String, Object> params) {
+			if (params == null || params.get("limit") == null || !(params.get("fields") instanceof List)) {
+				throw new ElasticSearchIllegalArgumentException("[" + NAME
+						+ "] requires the [limit] and [fields] params");
+			}
+			String limit = params.get("limit").toString();
+			long chars;
+			if (limit.endsWith("b") || limit.endsWith("B")) {
+				chars = ByteSizeValue.parseBytesSizeValue(limit).bytes();
+			} else {
+				chars = SizeValue.parseSizeValue(limit).singles();
+			}
+			Set<String> fields = new HashSet<String>();
+			for (Object field : (List<?>) params.get("fields")) {
+				fields.add(field.toString());
+			}
+			return new TruncatedSourceScript(chars, fields);
+		}
+	}
+
+	private final long limit;
+
+	private final Set<String> fields;
+
+	// whether a field is an analyzed string, per shard of the request
+	private final Map<String, Boolean> analyzed = new HashMap<String, Boolean>();
+
+	TruncatedSourceScript(long limit, Set<String> fields) {
+		this.limit = limit;
+		this.fields = fields;
+	}
+
+	@Override
+	public Object run() {
+		Map<String, Object> source = source().source();
+		if (source == null) {
+			return null;
+		}
+		Map<String, Object> partial = null;
+		for (Map.Entry<String, Object> entry : source.entrySet()) {
+			if (!(entry.getValue() instanceof String) || !fields.contains(entry.getKey())) {
+				continue;
+			}
+			String value = (String) entry.getValue();
+			int length = cut(value, limit);
+			if (length == -1 || !isAnalyzed(entry.getKey())) {
+				continue;
+			}
+			if (partial == null) {
+				partial = new HashMap<String, Object>(source);
+			}
+			partial.put(entry.getKey(), value.substring(0, length));
+		}
+		return partial == null ? source : partial;
+	}
+
+	/**
+	 * the length the value is cut to, -1 when it is kept whole. A value
+	 * without whitespace after the boundary (base64, minified traces) is cut
+	 * at limit + 3 rather than shipped whole: the token at the boundary then
+	 * still ends after limit + 2, so the coordinator drops its open tag just
+	 * like for the whole value.
+	 */
+	static int cut(String value, long limit) {
+		if (value.length() <= limit + 3) {
+			return -1;
+		}
+		for (int i = (int) limit + 2; i < value.length(); i++) {
+			if (Character.isWhitespace(value.charAt(i))) {
+				return i;
+			}
+		}
+		return (int) limit + 3;
+	}
+
+	private boolean isAnalyzed(String field) {
+		Boolean result = analyzed.get(field);
+		if (result == null) {
+			FieldMapper<?> mapper = doc().mapperService().smartNameFieldMapper(field);
+			result = mapper != null && mapper.fieldType().tokenized() && mapper.fieldDataType() != null
+					&& "string".equals(mapper.fieldDataType().getType());
+			analyzed.put(field, result);
+		}
+		return result;
+	}
+}
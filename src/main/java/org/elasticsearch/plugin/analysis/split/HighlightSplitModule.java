@@ -0,0 +1,25 @@
+package org.elasticsearch.plugin.analysis.split;
+
+import org.elasticsearch.common.inject.AbstractModule;
+import org.elasticsearch.index.analysis.action.HighlightCancellationService;
+import org.elasticsearch.index.analysis.action.HighlightShadowService;
+import org.elasticsearch.index.analysis.action.HighlightStrategyService;
+import org.elasticsearch.index.analysis.action.HighlightWarmer;
+import org.elasticsearch.index.analysis.rest.HighlightResponseCache;
+import org.elasticsearch.index.analysis.rest.HighlightSingleFlight;
+import org.elasticsearch.index.analysis.rest.HighlightTenantScheduler;
+
+public class HighlightSplitModule extends AbstractModule {
+
+	@Override
+	protected void configure() {
+		bind(HighlightResponseCache.class).asEagerSingleton();
+		bind(HighlightSingleFlight.class).asEagerSingleton();
+		bind(HighlightTenantScheduler.class).asEagerSingleton();
+		bind(HighlightShadowService.class).asEagerSingleton();
+		bind(HighlightCancellationService.class).asEagerSingleton();
+		bind(HighlightStrategyService.class).asEagerSingleton();
+		bind(HighlightWarmer.class).asEagerSingleton();
+	}
+
+}
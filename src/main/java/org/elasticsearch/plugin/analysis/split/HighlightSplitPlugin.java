@@ -21,14 +21,25 @@
  */
 package org.elasticsearch.plugin.analysis.split;
 
+import java.util.Collection;
+
 import org.apache.lucene.search.highlight.NeloHighlighter;
 import org.elasticsearch.action.ActionModule;
+import org.elasticsearch.common.collect.ImmutableList;
 import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.index.analysis.action.HighlightAction;
 import org.elasticsearch.index.analysis.action.TransportHighlightAction;
+import org.elasticsearch.index.analysis.rest.HighlightDocRestAction;
+import org.elasticsearch.index.analysis.rest.HighlightExportRestAction;
+import org.elasticsearch.index.analysis.rest.HighlightStatsRestAction;
+import org.elasticsearch.index.analysis.rest.HighlightTailRestAction;
+import org.elasticsearch.index.analysis.rest.HighlightTextRestAction;
+import org.elasticsearch.index.analysis.rest.MultiHighlightRestAction;
 import org.elasticsearch.index.analysis.rest.TokenizerRestAction;
+import org.elasticsearch.index.analysis.script.TruncatedSourceScript;
 import org.elasticsearch.plugins.AbstractPlugin;
 import org.elasticsearch.rest.RestModule;
+import org.elasticsearch.script.ScriptModule;
 import org.elasticsearch.search.highlight.HighlightModule;
 
 public class HighlightSplitPlugin extends AbstractPlugin {
@@ -43,17 +54,31 @@ public class HighlightSplitPlugin extends AbstractPlugin {
 		return "";
 	}
 
+	@Override
+	public Collection<Class<? extends Module>> modules() {
+		return ImmutableList.<Class<? extends Module>> of(HighlightSplitModule.class);
+	}
+
 	@Override
 	public void processModule(Module module) {
 		if (module instanceof RestModule) {
 			RestModule restModule = (RestModule) module;
 			restModule.addRestAction(TokenizerRestAction.class);
+			restModule.addRestAction(HighlightExportRestAction.class);
+			restModule.addRestAction(MultiHighlightRestAction.class);
+			restModule.addRestAction(HighlightDocRestAction.class);
+			restModule.addRestAction(HighlightTextRestAction.class);
+			restModule.addRestAction(HighlightTailRestAction.class);
+			restModule.addRestAction(HighlightStatsRestAction.class);
 		}else if(module instanceof ActionModule){
 			ActionModule actionModule = (ActionModule) module;
 			actionModule.registerAction(HighlightAction.INSTANCE, TransportHighlightAction.class);
 		}else if(module instanceof HighlightModule){
 			HighlightModule highlightModule = (HighlightModule)module;
 			highlightModule.registerHighlighter(NeloHighlighter.class);
+		}else if(module instanceof ScriptModule){
+			ScriptModule scriptModule = (ScriptModule) module;
+			scriptModule.registerScript(TruncatedSourceScript.NAME, TruncatedSourceScript.Factory.class);
 		}
 	}
 
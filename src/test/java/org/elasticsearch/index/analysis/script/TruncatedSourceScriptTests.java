@@ -0,0 +1,35 @@
+package org.elasticsearch.index.analysis.script;
+
+import junit.framework.TestCase;
+
+public class TruncatedSourceScriptTests extends TestCase {
+
+	public void testShortValueIsKeptWhole() {
+		assertEquals(-1, TruncatedSourceScript.cut("aaaaaaaa", 5));
+		assertEquals(-1, TruncatedSourceScript.cut("aaa bbbb", 5));
+	}
+
+	public void testCutAtWhitespaceAfterBoundary() {
+		assertEquals(11, TruncatedSourceScript.cut("aaaa bbbbbb cccc", 5));
+		assertEquals(7, TruncatedSourceScript.cut("aaaa bb cccc dddd", 5));
+	}
+
+	public void testValueWithoutWhitespaceIsCut() {
+		// the token at the boundary must end after limit + 2 like in the whole
+		// value, or the coordinator closes its tag
+		assertEquals(8, TruncatedSourceScript.cut("aaaaaaaaaa", 5));
+		assertEquals(1003, TruncatedSourceScript.cut(repeat('x', 4 * 1024 * 1024), 1000));
+	}
+
+	public void testWhitespaceBeforeBoundaryOnly() {
+		assertEquals(8, TruncatedSourceScript.cut("aa bbbbbbbbbbbb", 5));
+	}
+
+	private static String repeat(char c, int count) {
+		StringBuilder sb = new StringBuilder(count);
+		for (int i = 0; i < count; i++) {
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+}